@@ -0,0 +1,227 @@
+package io.itpl.database;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+// Per-month attendance counters, so percentages never scan the attendance table.
+//
+// attendance_monthly holds how many days each student was present per subject and month;
+// subject_monthly holds how many days the subject met that month, where a subject met on a date
+// if anyone was marked present in it (subject_session_days remembers which dates those were).
+// Only rows with status Present count. Triggers on attendance keep all three current inside the
+// transaction that inserts, updates or deletes the row, so every writer is covered, including
+// other kiosks. rebuild() recomputes them from the raw rows.
+public class AttendanceAggregates
+{
+    private static final String STATUS_PRESENT = "Present";
+    static final String[] CREATE_STATEMENTS = {
+            "CREATE TABLE IF NOT EXISTS attendance_monthly ("
+                    + "subject VARCHAR(100) NOT NULL, "
+                    + "month DATE NOT NULL, "
+                    + "enrollmentNumber VARCHAR(50) NOT NULL, "
+                    + "present INT NOT NULL, "
+                    + "PRIMARY KEY (subject, month, enrollmentNumber))",
+            "CREATE TABLE IF NOT EXISTS subject_monthly ("
+                    + "subject VARCHAR(100) NOT NULL, "
+                    + "month DATE NOT NULL, "
+                    + "sessions INT NOT NULL, "
+                    + "PRIMARY KEY (subject, month))",
+            "CREATE TABLE IF NOT EXISTS subject_session_days ("
+                    + "subject VARCHAR(100) NOT NULL, "
+                    + "date DATE NOT NULL, "
+                    + "PRIMARY KEY (subject, date))",
+            "DROP TRIGGER IF EXISTS attendance_aggregates_insert",
+            "CREATE TRIGGER attendance_aggregates_insert AFTER INSERT ON attendance FOR EACH ROW "
+                    + "BEGIN " + countMark("NEW") + "END",
+            "DROP TRIGGER IF EXISTS attendance_aggregates_delete",
+            "CREATE TRIGGER attendance_aggregates_delete AFTER DELETE ON attendance FOR EACH ROW "
+                    + "BEGIN " + uncountMark("OLD") + "END",
+            // A changed date, subject or status moves the mark: the old values are taken out and the
+            // new ones counted. An update that changes none of them, such as the writer's
+            // ON DUPLICATE KEY no-op (which fires this trigger too), cancels out.
+            "DROP TRIGGER IF EXISTS attendance_aggregates_update",
+            "CREATE TRIGGER attendance_aggregates_update AFTER UPDATE ON attendance FOR EACH ROW "
+                    + "BEGIN " + uncountMark("OLD") + countMark("NEW") + "END"
+    };
+
+    static final String[] REBUILD_STATEMENTS = {
+            "DELETE FROM attendance_monthly",
+            "DELETE FROM subject_monthly",
+            "DELETE FROM subject_session_days",
+            "INSERT INTO attendance_monthly (subject, month, enrollmentNumber, present) "
+                    + "SELECT subject, DATE_FORMAT(date, '%Y-%m-01'), enrollmentNumber, COUNT(*) "
+                    + "FROM attendance WHERE status = '" + STATUS_PRESENT + "' "
+                    + "GROUP BY subject, DATE_FORMAT(date, '%Y-%m-01'), enrollmentNumber",
+            "INSERT INTO subject_session_days (subject, date) "
+                    + "SELECT DISTINCT subject, date FROM attendance WHERE status = '" + STATUS_PRESENT + "'",
+            "INSERT INTO subject_monthly (subject, month, sessions) "
+                    + "SELECT subject, DATE_FORMAT(date, '%Y-%m-01'), COUNT(*) "
+                    + "FROM subject_session_days GROUP BY subject, DATE_FORMAT(date, '%Y-%m-01')"
+    };
+
+    // Trigger body that counts row (NEW) if it is a present mark.
+    private static String countMark(String row)
+    {
+        return "IF " + row + ".status = '" + STATUS_PRESENT + "' THEN "
+                + "INSERT INTO attendance_monthly (subject, month, enrollmentNumber, present) "
+                + "VALUES (" + row + ".subject, DATE_FORMAT(" + row + ".date, '%Y-%m-01'), " + row + ".enrollmentNumber, 1) "
+                + "ON DUPLICATE KEY UPDATE present = present + 1; "
+                + "INSERT IGNORE INTO subject_session_days (subject, date) VALUES (" + row + ".subject, " + row + ".date); "
+                + "IF ROW_COUNT() > 0 THEN "
+                + "INSERT INTO subject_monthly (subject, month, sessions) "
+                + "VALUES (" + row + ".subject, DATE_FORMAT(" + row + ".date, '%Y-%m-01'), 1) "
+                + "ON DUPLICATE KEY UPDATE sessions = sessions + 1; "
+                + "END IF; "
+                + "END IF; ";
+    }
+
+    // Trigger body that takes row (OLD) back out if it was a present mark; the session day goes
+    // when no present mark is left on it.
+    private static String uncountMark(String row)
+    {
+        return "IF " + row + ".status = '" + STATUS_PRESENT + "' THEN "
+                + "UPDATE attendance_monthly SET present = present - 1 "
+                + "WHERE subject = " + row + ".subject AND month = DATE_FORMAT(" + row + ".date, '%Y-%m-01') "
+                + "AND enrollmentNumber = " + row + ".enrollmentNumber; "
+                + "IF NOT EXISTS (SELECT 1 FROM attendance WHERE date = " + row + ".date AND subject = " + row + ".subject "
+                + "AND status = '" + STATUS_PRESENT + "') THEN "
+                + "DELETE FROM subject_session_days WHERE subject = " + row + ".subject AND date = " + row + ".date; "
+                + "UPDATE subject_monthly SET sessions = sessions - 1 "
+                + "WHERE subject = " + row + ".subject AND month = DATE_FORMAT(" + row + ".date, '%Y-%m-01'); "
+                + "END IF; "
+                + "END IF; ";
+    }
+
+    // Students on the subject's roster or with any mark in the range; those without a mark are at 0.
+    private static final String PERCENTAGES = "SELECT students.enrollmentNumber, COALESCE(SUM(m.present), 0), "
+            + "(SELECT COALESCE(SUM(sessions), 0) FROM subject_monthly WHERE subject = ? AND month BETWEEN ? AND ?) "
+            + "FROM (SELECT enrollmentNumber FROM subject_roster WHERE subject = ? "
+            + "UNION SELECT enrollmentNumber FROM attendance_monthly WHERE subject = ? AND month BETWEEN ? AND ?) students "
+            + "LEFT JOIN attendance_monthly m ON m.subject = ? AND m.month BETWEEN ? AND ? "
+            + "AND m.enrollmentNumber = students.enrollmentNumber "
+            + "GROUP BY students.enrollmentNumber ORDER BY students.enrollmentNumber";
+
+    // Recomputes every counter from the attendance table in one transaction. Marks being written
+    // meanwhile wait for it to commit and are then counted on top.
+    public static void rebuild() throws SQLException
+    {
+        try (Connection conn = DatabaseConnection.getConnection())
+        {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement())
+            {
+                for (String sql : REBUILD_STATEMENTS)
+                {
+                    stmt.execute(sql);
+                }
+                conn.commit();
+            }
+            catch (SQLException e)
+            {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Attendance of every student in the subject over the months from..to, both inclusive.
+    public static List<StudentAttendance> getPercentages(String subject, YearMonth from, YearMonth to) throws SQLException
+    {
+        Date fromMonth = Date.valueOf(from.atDay(1));
+        Date toMonth = Date.valueOf(to.atDay(1));
+        List<StudentAttendance> result = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(PERCENTAGES))
+        {
+            stmt.setString(1, subject);
+            stmt.setDate(2, fromMonth);
+            stmt.setDate(3, toMonth);
+            stmt.setString(4, subject);
+            stmt.setString(5, subject);
+            stmt.setDate(6, fromMonth);
+            stmt.setDate(7, toMonth);
+            stmt.setString(8, subject);
+            stmt.setDate(9, fromMonth);
+            stmt.setDate(10, toMonth);
+            try (ResultSet rs = stmt.executeQuery())
+            {
+                while (rs.next())
+                {
+                    result.add(new StudentAttendance(rs.getString(1), rs.getInt(2), rs.getInt(3)));
+                }
+            }
+        }
+        return result;
+    }
+
+    // Students in the subject whose attendance over the range is below percent.
+    public static List<StudentAttendance> getBelow(String subject, double percent, YearMonth from, YearMonth to)
+            throws SQLException
+    {
+        List<StudentAttendance> below = new ArrayList<>();
+        for (StudentAttendance attendance : getPercentages(subject, from, to))
+        {
+            if (attendance.getPercentage() < percent)
+            {
+                below.add(attendance);
+            }
+        }
+        return below;
+    }
+
+    public static class StudentAttendance
+    {
+        public final String enrollmentNumber;
+        public final int present;
+        public final int sessions;
+
+        StudentAttendance(String enrollmentNumber, int present, int sessions)
+        {
+            this.enrollmentNumber = enrollmentNumber;
+            this.present = present;
+            this.sessions = sessions;
+        }
+
+        public double getPercentage()
+        {
+            return sessions == 0 ? 100.0 : 100.0 * present / sessions;
+        }
+    }
+
+    // Usage: AttendanceAggregates rebuild
+    //        AttendanceAggregates below <subject> <percent> [from yyyy-mm] [to yyyy-mm]
+    public static void main(String[] args) throws SQLException
+    {
+        SchemaMigrations.migrate();
+        if (args.length > 0 && args[0].equals("rebuild"))
+        {
+            long start = System.nanoTime();
+            rebuild();
+            System.out.printf("Rebuilt attendance aggregates in %.2f s%n", (System.nanoTime() - start) / 1e9);
+        }
+        else if (args.length > 2 && args[0].equals("below"))
+        {
+            YearMonth to = args.length > 4 ? YearMonth.parse(args[4]) : YearMonth.from(LocalDate.now());
+            YearMonth from = args.length > 3 ? YearMonth.parse(args[3]) : to.minusMonths(5);
+            for (StudentAttendance attendance : getBelow(args[1], Double.parseDouble(args[2]), from, to))
+            {
+                System.out.printf("%s %d/%d %.1f%%%n", attendance.enrollmentNumber, attendance.present,
+                        attendance.sessions, attendance.getPercentage());
+            }
+        }
+        else
+        {
+            System.err.println("Usage: AttendanceAggregates rebuild | below <subject> <percent> [from yyyy-mm] [to yyyy-mm]");
+            System.exit(1);
+        }
+        DatabaseConnection.shutdown();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,329 @@
+package io.itpl.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Streams attendance rows out of the database as CSV or JSON.
+// The query runs forward-only with a fetch size of Integer.MIN_VALUE, which makes Connector/J
+// hand over one row at a time instead of reading the whole result, and each row is encoded
+// straight into a fixed direct buffer that is written to the file channel whenever it fills.
+// Memory use is therefore the same for a day of marks and for years of them.
+//
+// Usage: AttendanceExporter <csv|json> <output> [--subject S] [--student E] [--from yyyy-mm-dd] [--to yyyy-mm-dd]
+public class AttendanceExporter
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String[] COLUMNS = {"enrollmentNumber", "date", "time", "subject", "status"};
+
+    public enum Format
+    {
+        CSV,
+        JSON
+    }
+
+    private String subject;
+    private String enrollmentNumber;
+    private LocalDate from;
+    private LocalDate to;
+
+    // Per-subject report.
+    public AttendanceExporter forSubject(String subject)
+    {
+        this.subject = subject;
+        return this;
+    }
+
+    // Per-student report.
+    public AttendanceExporter forStudent(String enrollmentNumber)
+    {
+        this.enrollmentNumber = enrollmentNumber;
+        return this;
+    }
+
+    // Per-day report when from and to are the same day; either end may be null.
+    public AttendanceExporter between(LocalDate from, LocalDate to)
+    {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    // Writes the matching rows ordered by date and time, returning how many were written.
+    public long export(Format format, Path output) throws SQLException, IOException
+    {
+        List<Object> parameters = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT enrollmentNumber, date, time, subject, status FROM attendance WHERE 1 = 1");
+        if (from != null)
+        {
+            sql.append(" AND date >= ?");
+            parameters.add(Date.valueOf(from));
+        }
+        if (to != null)
+        {
+            sql.append(" AND date <= ?");
+            parameters.add(Date.valueOf(to));
+        }
+        if (subject != null)
+        {
+            sql.append(" AND subject = ?");
+            parameters.add(subject);
+        }
+        if (enrollmentNumber != null)
+        {
+            sql.append(" AND enrollmentNumber = ?");
+            parameters.add(enrollmentNumber);
+        }
+        sql.append(" ORDER BY date, time, id");
+
+        long rows = 0;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql.toString(),
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+             ChannelOutput out = new ChannelOutput(output))
+        {
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            for (int i = 0; i < parameters.size(); i++)
+            {
+                stmt.setObject(i + 1, parameters.get(i));
+            }
+
+            StringBuilder line = new StringBuilder(256);
+            String[] values = new String[COLUMNS.length];
+            writeHeader(format, line);
+            out.write(line);
+            try (ResultSet rs = stmt.executeQuery())
+            {
+                while (rs.next())
+                {
+                    for (int i = 0; i < COLUMNS.length; i++)
+                    {
+                        values[i] = rs.getString(i + 1);
+                    }
+                    line.setLength(0);
+                    if (format == Format.CSV)
+                    {
+                        appendCsv(line, values);
+                    }
+                    else
+                    {
+                        appendJson(line, values, rows == 0);
+                    }
+                    out.write(line);
+                    rows++;
+                }
+            }
+            if (format == Format.JSON)
+            {
+                line.setLength(0);
+                line.append(rows == 0 ? "]\n" : "\n]\n");
+                out.write(line);
+            }
+        }
+        return rows;
+    }
+
+    private static void writeHeader(Format format, StringBuilder line)
+    {
+        line.setLength(0);
+        if (format == Format.CSV)
+        {
+            appendCsv(line, COLUMNS);
+        }
+        else
+        {
+            line.append('[');
+        }
+    }
+
+    private static void appendCsv(StringBuilder line, String[] values)
+    {
+        for (int i = 0; i < values.length; i++)
+        {
+            if (i > 0)
+            {
+                line.append(',');
+            }
+            String value = values[i] == null ? "" : values[i];
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0)
+            {
+                line.append('"').append(value.replace("\"", "\"\"")).append('"');
+            }
+            else
+            {
+                line.append(value);
+            }
+        }
+        line.append('\n');
+    }
+
+    private static void appendJson(StringBuilder line, String[] values, boolean first)
+    {
+        line.append(first ? "\n{" : ",\n{");
+        for (int i = 0; i < COLUMNS.length; i++)
+        {
+            if (i > 0)
+            {
+                line.append(',');
+            }
+            line.append('"').append(COLUMNS[i]).append("\":");
+            if (values[i] == null)
+            {
+                line.append("null");
+                continue;
+            }
+            line.append('"');
+            for (int c = 0; c < values[i].length(); c++)
+            {
+                char ch = values[i].charAt(c);
+                switch (ch)
+                {
+                    case '"':
+                        line.append("\\\"");
+                        break;
+                    case '\\':
+                        line.append("\\\\");
+                        break;
+                    case '\n':
+                        line.append("\\n");
+                        break;
+                    case '\r':
+                        line.append("\\r");
+                        break;
+                    case '\t':
+                        line.append("\\t");
+                        break;
+                    default:
+                        if (ch < 0x20)
+                        {
+                            line.append(String.format("\\u%04x", (int) ch));
+                        }
+                        else
+                        {
+                            line.append(ch);
+                        }
+                }
+            }
+            line.append('"');
+        }
+        line.append('}');
+    }
+
+    // UTF-8 output through one reusable direct buffer.
+    private static class ChannelOutput implements Closeable
+    {
+        private final FileChannel channel;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        ChannelOutput(Path path) throws IOException
+        {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void write(CharSequence text) throws IOException
+        {
+            CharBuffer chars = CharBuffer.wrap(text);
+            while (true)
+            {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isOverflow())
+                {
+                    drain();
+                }
+                else if (result.isError())
+                {
+                    result.throwException();
+                }
+                else
+                {
+                    break;
+                }
+            }
+            encoder.reset();
+        }
+
+        private void drain() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                drain();
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: AttendanceExporter <csv|json> <output> [--subject S] [--student E] "
+                    + "[--from yyyy-mm-dd] [--to yyyy-mm-dd]");
+            System.exit(1);
+        }
+        Format format = Format.valueOf(args[0].toUpperCase());
+        AttendanceExporter exporter = new AttendanceExporter();
+        LocalDate from = null;
+        LocalDate to = null;
+        for (int i = 2; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "--subject":
+                    exporter.forSubject(args[i + 1]);
+                    break;
+                case "--student":
+                    exporter.forStudent(args[i + 1]);
+                    break;
+                case "--from":
+                    from = LocalDate.parse(args[i + 1]);
+                    break;
+                case "--to":
+                    to = LocalDate.parse(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        exporter.between(from, to);
+
+        long start = System.nanoTime();
+        long rows = exporter.export(format, Paths.get(args[1]));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("Exported %d rows in %.2f s (%.0f rows/s), heap in use %d MiB of %d MiB max%n",
+                rows, seconds, rows / seconds, (runtime.totalMemory() - runtime.freeMemory()) >> 20, runtime.maxMemory() >> 20);
+        DatabaseConnection.shutdown();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,166 @@
+package io.itpl.database;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Who is marked present today, per subject, held in memory.
+// Each student gets a dense ordinal the first time they are seen, and every subject keeps a
+// BitSet over those ordinals, so isMarked() and markIfAbsent() never touch the database.
+// load() fills a subject from the attendance table; refresh() then reads only rows with an id
+// above the highest one already seen, which picks up marks written by other kiosks. Everything
+// is reset when the date changes.
+public class AttendanceIndex
+{
+    // Auto-increment ids are handed out before commit, so a row from another kiosk can become
+    // visible after a higher id already has; each refresh re-reads this many ids below the cursor.
+    private static final long REFRESH_OVERLAP = 500;
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final Map<String, SubjectMarks> subjects = new HashMap<>();
+    private LocalDate date = LocalDate.now();
+
+    public synchronized boolean isMarked(String enrollmentNumber, String subject, LocalDate date)
+    {
+        if (!date.equals(this.date))
+        {
+            return false;
+        }
+        Integer ordinal = ordinals.get(enrollmentNumber);
+        SubjectMarks marks = subjects.get(subject);
+        return ordinal != null && marks != null && marks.present.get(ordinal);
+    }
+
+    // Sets the student's bit; false if it was already set.
+    public synchronized boolean markIfAbsent(String enrollmentNumber, String subject, LocalDate date)
+    {
+        rollTo(date);
+        BitSet present = subjects.computeIfAbsent(subject, key -> new SubjectMarks()).present;
+        int ordinal = ordinal(enrollmentNumber);
+        if (present.get(ordinal))
+        {
+            return false;
+        }
+        present.set(ordinal);
+        return true;
+    }
+
+    // Undoes markIfAbsent() for a mark that could not be recorded.
+    public synchronized void unmark(String enrollmentNumber, String subject, LocalDate date)
+    {
+        Integer ordinal = ordinals.get(enrollmentNumber);
+        SubjectMarks marks = subjects.get(subject);
+        if (date.equals(this.date) && ordinal != null && marks != null)
+        {
+            marks.present.clear(ordinal);
+        }
+    }
+
+    // Starts tracking the subject for today and reads its existing marks.
+    public void load(String subject) throws SQLException
+    {
+        synchronized (this)
+        {
+            rollTo(LocalDate.now());
+            subjects.computeIfAbsent(subject, key -> new SubjectMarks());
+        }
+        refresh(subject);
+    }
+
+    // Reads marks added since the last refresh for every loaded subject.
+    public void refresh() throws SQLException
+    {
+        List<String> loaded;
+        synchronized (this)
+        {
+            rollTo(LocalDate.now());
+            loaded = new ArrayList<>(subjects.keySet());
+        }
+        for (String subject : loaded)
+        {
+            refresh(subject);
+        }
+    }
+
+    private void refresh(String subject) throws SQLException
+    {
+        LocalDate day;
+        long lastId;
+        synchronized (this)
+        {
+            SubjectMarks marks = subjects.get(subject);
+            if (marks == null)
+            {
+                return;
+            }
+            day = date;
+            lastId = marks.lastId;
+        }
+
+        List<String> enrollmentNumbers = new ArrayList<>();
+        String sql = "SELECT id, enrollmentNumber FROM attendance WHERE date = ? AND subject = ? AND id > ? ORDER BY id";
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql))
+        {
+            stmt.setDate(1, Date.valueOf(day));
+            stmt.setString(2, subject);
+            stmt.setLong(3, Math.max(0, lastId - REFRESH_OVERLAP));
+            try (ResultSet rs = stmt.executeQuery())
+            {
+                while (rs.next())
+                {
+                    lastId = rs.getLong(1);
+                    enrollmentNumbers.add(rs.getString(2));
+                }
+            }
+        }
+
+        synchronized (this)
+        {
+            SubjectMarks marks = subjects.get(subject);
+            // The day rolled over while the query ran; its rows belong to the old day.
+            if (marks == null || !day.equals(date))
+            {
+                return;
+            }
+            for (String enrollmentNumber : enrollmentNumbers)
+            {
+                marks.present.set(ordinal(enrollmentNumber));
+            }
+            marks.lastId = Math.max(marks.lastId, lastId);
+        }
+    }
+
+    private void rollTo(LocalDate date)
+    {
+        if (!date.equals(this.date))
+        {
+            this.date = date;
+            subjects.replaceAll((subject, marks) -> new SubjectMarks());
+        }
+    }
+
+    private int ordinal(String enrollmentNumber)
+    {
+        Integer ordinal = ordinals.get(enrollmentNumber);
+        if (ordinal == null)
+        {
+            ordinal = ordinals.size();
+            ordinals.put(enrollmentNumber, ordinal);
+        }
+        return ordinal;
+    }
+
+    private static class SubjectMarks
+    {
+        final BitSet present = new BitSet();
+        long lastId;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,428 @@
+package io.itpl.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only local journal of accepted attendance marks.
+//
+// Marks are appended to memory-mapped segment files of SEGMENT_SIZE bytes. append() returns a
+// future that completes once the mark is on disk; a flusher forces the active segment every
+// FLUSH_INTERVAL_MILLIS, so one fsync covers every mark appended in that window.
+// A reader (the AttendanceWriter) takes marks from the checkpoint onwards and calls commit()
+// after they are in the database; commit() persists the checkpoint and deletes segments that
+// lie entirely before it.
+//
+// Record layout: int payload length, int CRC32 of the payload, then the UTF-8 payload
+// "enrollmentNumber \t subject \t date \t time". A zero length marks the end of a segment; a
+// record whose CRC does not match (a torn write) ends recovery of the active segment.
+// Marks the database rejects for good are appended to QUARANTINE_FILE, one payload plus the
+// reason per line, so they can be fixed and replayed by hand.
+public class AttendanceJournal implements Closeable
+{
+    private static final int SEGMENT_SIZE = 1 << 20;
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+    private static final long FLUSH_INTERVAL_MILLIS = 5;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String QUARANTINE_FILE = "quarantine.log";
+
+    private final Path directory;
+    private final ScheduledExecutorService flusher;
+    private FileChannel activeChannel;
+    private MappedByteBuffer active;
+    private long activeSequence;
+    private List<CompletableFuture<Void>> unflushed = new ArrayList<>();
+    private long readSequence;
+    private int readOffset;
+    private long appended;
+    private long committed;
+
+    private AttendanceJournal(Path directory) throws IOException
+    {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        List<Long> segments = listSegments();
+        Position checkpoint = readCheckpoint();
+        if (checkpoint != null)
+        {
+            readSequence = checkpoint.sequence;
+            readOffset = checkpoint.offset;
+        }
+        else
+        {
+            readSequence = segments.isEmpty() ? 0 : segments.get(0);
+            readOffset = 0;
+        }
+
+        if (segments.isEmpty())
+        {
+            openSegment(Math.max(readSequence, 0));
+        }
+        else
+        {
+            openSegment(segments.get(segments.size() - 1));
+            active.position(recoverEnd(active));
+        }
+        if (readSequence > activeSequence)
+        {
+            readSequence = activeSequence;
+            readOffset = 0;
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "attendance-journal-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public static AttendanceJournal open(Path directory) throws IOException
+    {
+        return new AttendanceJournal(directory);
+    }
+
+    // Completes when the mark is durable in the journal.
+    public synchronized CompletableFuture<Void> append(Entry entry) throws IOException
+    {
+        byte[] payload = entry.encode();
+        if (RECORD_HEADER + payload.length > SEGMENT_SIZE - RECORD_HEADER)
+        {
+            throw new IOException("Attendance journal record too large: " + payload.length + " bytes");
+        }
+        if (active.remaining() < RECORD_HEADER + payload.length + RECORD_HEADER)
+        {
+            rollSegment();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        int start = active.position();
+        active.position(start + RECORD_HEADER);
+        active.put(payload);
+        active.putInt(start + Integer.BYTES, (int) crc.getValue());
+        // Length goes in last, so a reader never sees a record whose payload is not written yet.
+        active.putInt(start, payload.length);
+        appended++;
+
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        unflushed.add(durable);
+        notifyAll();
+        return durable;
+    }
+
+    private void flush()
+    {
+        List<CompletableFuture<Void>> pending;
+        MappedByteBuffer buffer;
+        synchronized (this)
+        {
+            if (unflushed.isEmpty())
+            {
+                return;
+            }
+            pending = unflushed;
+            unflushed = new ArrayList<>();
+            buffer = active;
+        }
+        try
+        {
+            buffer.force();
+            for (CompletableFuture<Void> future : pending)
+            {
+                future.complete(null);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            for (CompletableFuture<Void> future : pending)
+            {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Called with the lock held; the old segment is forced before the new one takes appends.
+    private void rollSegment() throws IOException
+    {
+        active.force();
+        List<CompletableFuture<Void>> pending = unflushed;
+        unflushed = new ArrayList<>();
+        for (CompletableFuture<Void> future : pending)
+        {
+            future.complete(null);
+        }
+        activeChannel.close();
+        openSegment(activeSequence + 1);
+    }
+
+    private void openSegment(long sequence) throws IOException
+    {
+        activeSequence = sequence;
+        activeChannel = FileChannel.open(segmentPath(sequence),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+    }
+
+    // Marks from the checkpoint onwards, at most max of them; waits up to timeout if there are none.
+    public synchronized Batch read(int max, long timeout, TimeUnit unit) throws IOException, InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<Entry> entries = new ArrayList<>();
+        long sequence = readSequence;
+        int offset = readOffset;
+        while (true)
+        {
+            while (entries.size() < max)
+            {
+                ByteBuffer segment = sequence == activeSequence ? active.duplicate() : mapReadOnly(sequence);
+                if (segment == null)
+                {
+                    sequence++;
+                    offset = 0;
+                    continue;
+                }
+                int limit = sequence == activeSequence ? active.position() : SEGMENT_SIZE;
+                while (entries.size() < max && offset + RECORD_HEADER <= limit)
+                {
+                    int length = segment.getInt(offset);
+                    if (length <= 0 || offset + RECORD_HEADER + length > limit)
+                    {
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    segment.get(offset + RECORD_HEADER, payload);
+                    entries.add(Entry.decode(payload));
+                    offset += RECORD_HEADER + length;
+                }
+                if (entries.size() >= max || sequence == activeSequence)
+                {
+                    break;
+                }
+                sequence++;
+                offset = 0;
+            }
+            if (!entries.isEmpty())
+            {
+                return new Batch(entries, new Position(sequence, offset));
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+                return new Batch(entries, new Position(sequence, offset));
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    // Records that everything before position is in the database.
+    public void commit(Batch batch) throws IOException
+    {
+        Position position = batch.end;
+        Path tempFile = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        buffer.putLong(position.sequence).putInt(position.offset).flip();
+        try (FileChannel channel = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tempFile, directory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        synchronized (this)
+        {
+            readSequence = position.sequence;
+            readOffset = position.offset;
+            committed += batch.entries.size();
+        }
+        for (long sequence : listSegments())
+        {
+            if (sequence < position.sequence)
+            {
+                Files.deleteIfExists(segmentPath(sequence));
+            }
+        }
+    }
+
+    // Sets the mark aside on disk; the caller then commits past it.
+    public Path quarantine(Entry entry, String reason) throws IOException
+    {
+        Path path = directory.resolve(QUARANTINE_FILE);
+        String line = new String(entry.encode(), StandardCharsets.UTF_8) + "\t"
+                + String.valueOf(reason).replace('\n', ' ').replace('\r', ' ') + "\n";
+        Files.write(path, line.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        return path;
+    }
+
+    // Marks appended but not yet committed, counted since this journal was opened.
+    public synchronized long getPendingCount()
+    {
+        return Math.max(0, appended - committed);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        flusher.shutdown();
+        flush();
+        synchronized (this)
+        {
+            activeChannel.close();
+        }
+    }
+
+    private ByteBuffer mapReadOnly(long sequence) throws IOException
+    {
+        Path path = segmentPath(sequence);
+        if (!Files.exists(path))
+        {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), SEGMENT_SIZE));
+        }
+    }
+
+    private static int recoverEnd(ByteBuffer segment)
+    {
+        int offset = 0;
+        while (offset + RECORD_HEADER <= segment.capacity())
+        {
+            int length = segment.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER + length > segment.capacity())
+            {
+                break;
+            }
+            byte[] payload = new byte[length];
+            segment.get(offset + RECORD_HEADER, payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != segment.getInt(offset + Integer.BYTES))
+            {
+                System.err.println("Attendance journal: discarding torn record at offset " + offset);
+                break;
+            }
+            offset += RECORD_HEADER + length;
+        }
+        // Clear whatever follows so a later, shorter record cannot be mistaken for the torn one.
+        for (int i = offset; i < Math.min(segment.capacity(), offset + RECORD_HEADER); i++)
+        {
+            segment.put(i, (byte) 0);
+        }
+        return offset;
+    }
+
+    private Position readCheckpoint() throws IOException
+    {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path))
+        {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        return new Position(buffer.getLong(), buffer.getInt());
+    }
+
+    private List<Long> listSegments() throws IOException
+    {
+        List<Long> sequences = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory))
+        {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> sequences.add(Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        sequences.sort(null);
+        return sequences;
+    }
+
+    private Path segmentPath(long sequence)
+    {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    public static class Entry
+    {
+        public final String enrollmentNumber;
+        public final String subject;
+        public final LocalDate date;
+        public final LocalTime time;
+
+        public Entry(String enrollmentNumber, String subject, LocalDate date, LocalTime time)
+        {
+            this.enrollmentNumber = enrollmentNumber;
+            this.subject = subject;
+            this.date = date;
+            this.time = time;
+        }
+
+        byte[] encode()
+        {
+            return (enrollmentNumber + "\t" + subject + "\t" + date + "\t" + time).getBytes(StandardCharsets.UTF_8);
+        }
+
+        static Entry decode(byte[] payload)
+        {
+            String[] fields = new String(payload, StandardCharsets.UTF_8).split("\t", -1);
+            return new Entry(fields[0], fields[1], LocalDate.parse(fields[2]), LocalTime.parse(fields[3]));
+        }
+
+        String key()
+        {
+            return key(enrollmentNumber, subject, date);
+        }
+
+        static String key(String enrollmentNumber, String subject, LocalDate date)
+        {
+            return enrollmentNumber + "|" + subject + "|" + date;
+        }
+    }
+
+    public static class Batch
+    {
+        public final List<Entry> entries;
+        private final Position end;
+
+        Batch(List<Entry> entries, Position end)
+        {
+            this.entries = entries;
+            this.end = end;
+        }
+    }
+
+    private static class Position
+    {
+        final long sequence;
+        final int offset;
+
+        Position(long sequence, int offset)
+        {
+            this.sequence = sequence;
+            this.offset = offset;
+        }
+    }
+}
\ No newline at end of file
@@ -1,14 +1,19 @@
 package io.itpl.ui;
 
+import io.itpl.database.AttendanceWriter;
 import io.itpl.database.DatabaseConnection;
+import io.itpl.facerecognition.FaceDetector;
 import io.itpl.facerecognition.FaceRecognitionTrainer;
+import io.itpl.facerecognition.FaceTrack;
+import io.itpl.facerecognition.FaceTracker;
+import io.itpl.facerecognition.TrackingFaceDetector;
+import io.itpl.facerecognition.VoteBuffer;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
@@ -16,52 +21,53 @@ import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import org.bytedeco.javacv.*;
 import org.bytedeco.opencv.opencv_core.*;
-import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
 import javafx.scene.layout.GridPane;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import javafx.embed.swing.SwingFXUtils;
+import java.util.concurrent.atomic.AtomicReference;
 import static org.bytedeco.opencv.global.opencv_imgproc.*;
 
 public class AttendanceScreen {
-    private OpenCVFrameGrabber capture;
     private ImageView cameraView;
+    private PreviewRenderer previewRenderer;
     private FaceRecognitionTrainer faceRecognizer;
     private String selectedSubject;
     private Label statusLabel;
     private BorderPane mainLayout;
     private VBox subjectSelectionLayout;
     private VBox attendanceLayout;
-    private CascadeClassifier faceDetector;
-    private OpenCVFrameConverter.ToMat converterToMat = new OpenCVFrameConverter.ToMat();
-    private Map<String, Map<String, LocalDateTime>> lastAttendanceTime = new HashMap<>();
-    private static final int PREDICTION_BUFFER_SIZE = 50;
-    private static final double CONFIDENCE_THRESHOLD = 200.0;
-    private java.util.Queue<FaceRecognitionTrainer.RecognitionResult> predictionBuffer = new LinkedList<>();
+    private FaceDetector faceDetector;
+    private final VoteBuffer votes = new VoteBuffer();
     private GridPane grid;
     private Button nextButton;
     private Button rescanButton;
     private Button registerButton;
     private AtomicBoolean isScanning = new AtomicBoolean(false);
-    private Thread cameraThread;
+    private CameraPipeline cameraPipeline;
     private Stage primaryStage;
     private Button backButton;
-    private boolean attendanceMarked = false;
+    private volatile boolean attendanceMarked = false;
+    private Button classroomModeButton;
+    private AtomicBoolean classroomMode = new AtomicBoolean(false);
+    private FaceTracker faceTracker = new FaceTracker();
+    private Set<String> markedInSession = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<String> lastStatus = new AtomicReference<>();
+    private final FrameStats frameStats = new FrameStats("processFrame");
     public AttendanceScreen(Stage primaryStage) {
         this.primaryStage = primaryStage;
         faceRecognizer = new FaceRecognitionTrainer();
         faceRecognizer.loadModel();
-        String cascadePath = faceRecognizer.getPathToXml("haarcascade_frontalface_default.xml");
-        faceDetector = new CascadeClassifier(cascadePath);
+        faceRecognizer.startModelWatcher();
+        faceDetector = Boolean.parseBoolean(System.getProperty("face.tracking", "true"))
+                ? TrackingFaceDetector.create() : FaceDetector.create();
 
         initializeLayouts();
     }
@@ -107,6 +113,7 @@ public class AttendanceScreen {
         cameraView.setFitWidth(500);
         cameraView.setFitHeight(580);
         cameraView.setPreserveRatio(true);
+        previewRenderer = new PreviewRenderer(cameraView);
 
         statusLabel = new Label("Initializing camera...");
         statusLabel.setStyle("-fx-font-size: 18px; -fx-font-weight: bold;");
@@ -118,13 +125,15 @@ public class AttendanceScreen {
         rescanButton = createStyledButton("Rescan");
         registerButton = createStyledButton("Haven't registered yet?");
         backButton = createStyledButton("Back to Subject Selection");
+        classroomModeButton = createStyledButton("Classroom Mode: Off");
 
         nextButton.setOnAction(e -> startScanning());
+        classroomModeButton.setOnAction(e -> toggleClassroomMode());
         rescanButton.setOnAction(e -> resetAttendance());
         registerButton.setOnAction(e -> goToRegisterScreen());
         backButton.setOnAction(e -> returnToSubjectSelection());
 
-        buttonBox.getChildren().addAll(nextButton, rescanButton, registerButton, backButton);
+        buttonBox.getChildren().addAll(nextButton, rescanButton, registerButton, classroomModeButton, backButton);
 
         layout.getChildren().addAll(cameraView, statusLabel, buttonBox);
         return layout;
@@ -144,10 +153,40 @@ public class AttendanceScreen {
         primaryStage.show();
     }
 
+    // The roster and today's marks load off the FX thread; the camera starts once both are in.
     private void showAttendanceLayout(String subject) {
         selectedSubject = subject;
-        mainLayout.setCenter(attendanceLayout);
-        initializeCamera();
+        subjectSelectionLayout.setDisable(true);
+        CompletableFuture.allOf(
+                CompletableFuture.runAsync(() -> faceRecognizer.setRoster(loadRoster(subject))),
+                AttendanceWriter.getInstance().openSession(subject))
+                .whenComplete((ignored, error) -> Platform.runLater(() -> {
+                    subjectSelectionLayout.setDisable(false);
+                    if (error != null) {
+                        System.err.println("Could not prepare session for " + subject + ": " + error.getMessage());
+                    }
+                    mainLayout.setCenter(attendanceLayout);
+                    initializeCamera();
+                }));
+    }
+
+    // Students enrolled in the subject; an empty roster means the whole gallery is searched.
+    private List<String> loadRoster(String subject) {
+        List<String> roster = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            String sql = "SELECT enrollmentNumber FROM subject_roster WHERE subject = ?";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, subject);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        roster.add(rs.getString("enrollmentNumber"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Could not load roster for " + subject + ", searching all students: " + e.getMessage());
+        }
+        return roster;
     }
 
     private void returnToSubjectSelection() {
@@ -157,10 +196,6 @@ public class AttendanceScreen {
 
     private void initializeCamera() {
         try {
-            if (capture == null) {
-                capture = new OpenCVFrameGrabber(0);
-                capture.start();
-            }
             showCameraPreview();
             startScanning();
         } catch (FrameGrabber.Exception e) {
@@ -169,59 +204,67 @@ public class AttendanceScreen {
         }
     }
 
-    private void showCameraPreview() {
-        if (cameraThread != null && cameraThread.isAlive()) {
+    private void showCameraPreview() throws FrameGrabber.Exception {
+        if (cameraPipeline != null && cameraPipeline.isRunning()) {
             return;
         }
 
-        cameraThread = new Thread(() -> {
-            try {
-                while (!Thread.currentThread().isInterrupted()) {
-                    Frame frame = capture.grab();
-                    if (frame != null) {
-                        Mat mat = converterToMat.convert(frame);
-                        Image image = mat2Image(mat);
-                        Platform.runLater(() -> cameraView.setImage(image));
+        cameraPipeline = new CameraPipeline(CameraService.getDefault(), faceDetector, this::isAnalyzing, this::processFrame, this::renderFrame);
+        cameraPipeline.getPacer().setIdleListener(idle -> updateStatus(idle
+                ? "Waiting for someone to step in front of the camera."
+                : "Scanning... Please stand in front of the camera."));
+        cameraPipeline.start();
+    }
 
-                        if (isScanning.get()) {
-                            processFrame(mat);
-                        }
+    private void renderFrame(CameraFrame frame) {
+        previewRenderer.render(frame.getImage());
+    }
 
-                        mat.release();
-                    }
-                    Thread.sleep(33);
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            } catch (Exception e) {
-                e.printStackTrace();
-                Platform.runLater(() -> updateStatus("Camera error: " + e.getMessage()));
-            }
-        });
-        cameraThread.setDaemon(true);
-        cameraThread.start();
+    private boolean isAnalyzing() {
+        return isScanning.get() && !(attendanceMarked && !classroomMode.get());
     }
 
     private void startScanning() {
+        if (cameraPipeline != null) {
+            cameraPipeline.getPacer().keepActive();
+        }
         attendanceMarked = false;
         isScanning.set(true);
         updateStatus("Scanning... Please stand in front of the camera.");
         nextButton.setDisable(true);
     }
 
-    private void processFrame(Mat mat) {
-        if (attendanceMarked || !isScanning.get()) {
+    private void toggleClassroomMode() {
+        boolean enabled = !classroomMode.get();
+        classroomMode.set(enabled);
+        classroomModeButton.setText("Classroom Mode: " + (enabled ? "On" : "Off"));
+        faceTracker.clear();
+        resetPredictionBuffer();
+        startScanning();
+    }
+
+    // Recognition stage of the camera pipeline; detection has already filled the frame's faces.
+    private void processFrame(CameraFrame frame) {
+        if (!isAnalyzing()) {
             return;
         }
 
-        Mat grayMat = new Mat();
-        cvtColor(mat, grayMat, COLOR_BGR2GRAY);
+        frameStats.frameStarted();
+        try {
+            recognize(frame.getGray(), frame.getFaces());
+        } finally {
+            frameStats.frameFinished();
+        }
+    }
 
-        RectVector faceDetections = new RectVector();
-        faceDetector.detectMultiScale(grayMat, faceDetections);
+    private void recognize(Mat grayFrame, RectVector faceDetections) {
+        if (classroomMode.get()) {
+            processClassroomFrame(grayFrame, faceDetections);
+            return;
+        }
 
         if (faceDetections.empty()) {
-            Platform.runLater(() -> updateStatus("No face detected. Please stand in front of the camera."));
+            updateStatus("No face detected. Please stand in front of the camera.");
             resetPredictionBuffer();
             return;
         }
@@ -229,86 +272,105 @@ public class AttendanceScreen {
         Rect rect = faceDetections.get(0);
 
         if (rect.width() < 50 || rect.height() < 50) {
-            Platform.runLater(() -> updateStatus("Face too small to recognize. Please move closer."));
+            updateStatus("Face too small to recognize. Please move closer.");
             resetPredictionBuffer();
             return;
         }
 
-        Mat face = new Mat(grayMat, rect);
-        FaceRecognitionTrainer.RecognitionResult result = faceRecognizer.recognizeFace(face);
+        FaceRecognitionTrainer.RecognitionResult result;
+        try (Mat face = new Mat(grayFrame, rect)) {
+            result = faceRecognizer.recognizeFace(face);
+        }
 
-        addPrediction(result);
+        votes.add(result.enrollmentNumber, result.confidence);
 
-        if (predictionBuffer.size() >= PREDICTION_BUFFER_SIZE) {
-            processRecognitionResults();
+        VoteBuffer.Decision decision = votes.decide();
+        if (decision != VoteBuffer.Decision.PENDING) {
+            processRecognitionResults(decision, votes.getLeader());
         } else {
-            Platform.runLater(() -> updateStatus("Analyzing... Please keep your face in view. (" + predictionBuffer.size() + "/" + PREDICTION_BUFFER_SIZE + ")"));
+            updateStatus("Analyzing... Please keep your face in view. (" + votes.size() + "/" + votes.getCapacity() + ")");
         }
-
-        grayMat.release();
     }
 
-    private void resetPredictionBuffer() {
-        predictionBuffer.clear();
-    }
-
-    private void addPrediction(FaceRecognitionTrainer.RecognitionResult result) {
-        predictionBuffer.offer(result);
-        if (predictionBuffer.size() > PREDICTION_BUFFER_SIZE) {
-            predictionBuffer.poll();
+    // Recognizes every face in the frame; each track votes independently and is marked on its own.
+    private void processClassroomFrame(Mat grayMat, RectVector faceDetections) {
+        List<Rect> faces = new ArrayList<>();
+        for (long i = 0; i < faceDetections.size(); i++) {
+            Rect rect = faceDetections.get(i);
+            if (rect.width() >= 50 && rect.height() >= 50) {
+                faces.add(rect);
+            }
         }
-    }
 
-    private void processRecognitionResults() {
-        Map<String, Integer> labelCounts = new HashMap<>();
-        double totalConfidence = 0;
-
-        for (FaceRecognitionTrainer.RecognitionResult result : predictionBuffer) {
-            labelCounts.put(result.enrollmentNumber, labelCounts.getOrDefault(result.enrollmentNumber, 0) + 1);
-            totalConfidence += result.confidence;
+        List<FaceTrack> tracks = faceTracker.update(faces);
+        List<FaceTrack> pendingTracks = new ArrayList<>();
+        List<Mat> pendingFaces = new ArrayList<>();
+        for (int i = 0; i < tracks.size(); i++) {
+            if (!tracks.get(i).isMarked()) {
+                pendingTracks.add(tracks.get(i));
+                pendingFaces.add(new Mat(grayMat, faces.get(i)));
+            }
         }
 
-        double averageConfidence = totalConfidence / predictionBuffer.size();
-
-        String mostFrequentLabel = null;
-        int maxCount = 0;
-
-        for (Map.Entry<String, Integer> entry : labelCounts.entrySet()) {
-            if (entry.getValue() > maxCount) {
-                maxCount = entry.getValue();
-                mostFrequentLabel = entry.getKey();
+        List<FaceRecognitionTrainer.RecognitionResult> results = faceRecognizer.recognizeFaces(pendingFaces);
+        for (Mat face : pendingFaces) {
+            face.close();
+        }
+        for (int i = 0; i < pendingTracks.size(); i++) {
+            FaceTrack track = pendingTracks.get(i);
+            VoteBuffer trackVotes = track.getVotes();
+            trackVotes.add(results.get(i).enrollmentNumber, results.get(i).confidence);
+
+            VoteBuffer.Decision decision = trackVotes.decide();
+            if (decision == VoteBuffer.Decision.ACCEPT) {
+                String label = trackVotes.getLeader();
+                track.setMarked(true);
+                if (markedInSession.add(label)) {
+                    Platform.runLater(() -> markAttendance(label));
+                }
+            }
+            if (decision != VoteBuffer.Decision.PENDING) {
+                trackVotes.clear();
             }
         }
 
-        final double recognitionThreshold = PREDICTION_BUFFER_SIZE * 0.6;
-        final String finalMostFrequentLabel = mostFrequentLabel;
-        final int finalMaxCount = maxCount;
+        int trackedFaces = tracks.size();
+        int markedFaces = markedInSession.size();
+        updateStatus("Classroom mode: " + trackedFaces + " face(s) in view, "
+                + markedFaces + " marked this session.");
+    }
 
+    private void resetPredictionBuffer() {
+        votes.clear();
+    }
+
+    private void processRecognitionResults(VoteBuffer.Decision decision, String label) {
         Platform.runLater(() -> {
-            if (finalMaxCount >= recognitionThreshold) {
-                if (averageConfidence < CONFIDENCE_THRESHOLD) {
-                    if ("Unknown".equals(finalMostFrequentLabel) || "0".equals(finalMostFrequentLabel)) {
-                        updateStatus("Face not recognized. Please register or try again.");
-                        showButtons(true);
-                        nextButton.setDisable(true);
+            switch (decision) {
+                case ACCEPT:
+                    if (!attendanceMarked) {
+                        markAttendance(label);
+                        attendanceMarked = true;
+                        isScanning.set(false);
                     } else {
-                        if (!attendanceMarked) {
-                            markAttendance(finalMostFrequentLabel);
-                            attendanceMarked = true;
-                            isScanning.set(false);
-                        } else {
-                            updateStatus("Attendance already marked for " + finalMostFrequentLabel);
-                        }
+                        updateStatus("Attendance already marked for " + label);
                     }
-                } else {
+                    break;
+                case UNKNOWN:
+                    updateStatus("Face not recognized. Please register or try again.");
+                    showButtons(true);
+                    nextButton.setDisable(true);
+                    break;
+                case LOW_CONFIDENCE:
                     updateStatus("Face not recognized with sufficient confidence. Please try again.");
                     showButtons(true);
                     nextButton.setDisable(true);
-                }
-            } else {
-                updateStatus("Face not recognized consistently. Please try again.");
-                showButtons(true);
-                nextButton.setDisable(true);
+                    break;
+                default:
+                    updateStatus("Face not recognized consistently. Please try again.");
+                    showButtons(true);
+                    nextButton.setDisable(true);
+                    break;
             }
         });
 
@@ -321,69 +383,40 @@ public class AttendanceScreen {
             registerButton.setVisible(show);
         });
     }
+    // Safe from any thread; repeated messages are not posted to the FX thread again.
     private void updateStatus(String message) {
-        Platform.runLater(() -> statusLabel.setText(message));
-    }
-
-    private Image mat2Image(Mat frame) {
-        try {
-            Java2DFrameConverter converter = new Java2DFrameConverter();
-            OpenCVFrameConverter.ToMat converterToMat = new OpenCVFrameConverter.ToMat();
-            Frame javaFrame = converterToMat.convert(frame);
-            return SwingFXUtils.toFXImage(converter.getBufferedImage(javaFrame, 1.0), null);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+        if (message.equals(lastStatus.getAndSet(message))) {
+            return;
         }
+        Platform.runLater(() -> statusLabel.setText(message));
     }
 
+    // Hands the mark to the writer; the outcome is shown once it is safely in the local journal.
     private void markAttendance(String enrollmentNumber) {
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            String checkSql = "SELECT * FROM attendance WHERE enrollmentNumber = ? AND date = ? AND subject = ?";
-            try (PreparedStatement checkStmt = conn.prepareStatement(checkSql)) {
-                checkStmt.setString(1, enrollmentNumber);
-                checkStmt.setDate(2, java.sql.Date.valueOf(LocalDate.now()));
-                checkStmt.setString(3, selectedSubject);
-
-                ResultSet rs = checkStmt.executeQuery();
-                if (rs.next()) {
-                    Platform.runLater(() -> {
-                        updateStatus("Attendance already marked for " + enrollmentNumber + " today in " + selectedSubject);
-                        nextButton.setDisable(false);
-                        isScanning.set(false);
-                        attendanceMarked = true;
-                    });
-                    return;
-                }
-            }
-
-            String sql = "INSERT INTO attendance (enrollmentNumber, date, time, subject, status) VALUES (?, ?, ?, ?, ?)";
-            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setString(1, enrollmentNumber);
-                pstmt.setDate(2, java.sql.Date.valueOf(LocalDate.now()));
-                pstmt.setTime(3, java.sql.Time.valueOf(LocalTime.now()));
-                pstmt.setString(4, selectedSubject);
-                pstmt.setString(5, "Present");
-
-                int affectedRows = pstmt.executeUpdate();
-                if (affectedRows > 0) {
-                    Platform.runLater(() -> {
-                        updateStatus("Attendance marked for " + enrollmentNumber + " in " + selectedSubject);
-                        nextButton.setDisable(false);
-                    });
-                    Map<String, LocalDateTime> subjectAttendanceTimes = lastAttendanceTime.getOrDefault(enrollmentNumber, new HashMap<>());
-                    subjectAttendanceTimes.put(selectedSubject, LocalDateTime.now());
-                    lastAttendanceTime.put(enrollmentNumber, subjectAttendanceTimes);
+        String subject = selectedSubject;
+        AttendanceWriter.getInstance().mark(enrollmentNumber, subject).whenComplete((outcome, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                // Lets classroom mode mark the student again once their face is tracked anew.
+                markedInSession.remove(enrollmentNumber);
+                updateStatus("Error marking attendance: " + error.getMessage());
+            } else if (outcome == AttendanceWriter.Outcome.ALREADY_MARKED) {
+                updateStatus("Attendance already marked for " + enrollmentNumber + " today in " + subject);
+                if (!classroomMode.get()) {
+                    nextButton.setDisable(false);
+                    isScanning.set(false);
+                    attendanceMarked = true;
                 }
+            } else {
+                updateStatus("Attendance marked for " + enrollmentNumber + " in " + subject);
+                nextButton.setDisable(false);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            Platform.runLater(() -> updateStatus("Error marking attendance: " + e.getMessage()));
-        }
+        }));
     }
 
     private void resetAttendance() {
         attendanceMarked = false;
+        faceTracker.clear();
+        markedInSession.clear();
         isScanning.set(true);
         nextButton.setDisable(true);
         updateStatus("Rescanning... Please stand in front of the camera.");
@@ -392,6 +425,7 @@ public class AttendanceScreen {
 
     private void returnToMainScreen() {
         stopCamera();
+        faceRecognizer.stopModelWatcher();
         MainScreen mainScreen = new MainScreen();
         mainScreen.start(primaryStage);
         if (primaryStage.isMaximized()) {
@@ -401,28 +435,16 @@ public class AttendanceScreen {
 
     private void goToRegisterScreen() {
         stopCamera();
+        faceRecognizer.stopModelWatcher();
         RegisterUserScreen registerScreen = new RegisterUserScreen(primaryStage);
         registerScreen.show();
     }
 
     private void stopCamera() {
         isScanning.set(false);
-        if (cameraThread != null) {
-            cameraThread.interrupt();
-            try {
-                cameraThread.join(1000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }
-        if (capture != null) {
-            try {
-                capture.stop();
-                capture.release();
-                capture = null;
-            } catch (FrameGrabber.Exception e) {
-                e.printStackTrace();
-            }
+        if (cameraPipeline != null) {
+            cameraPipeline.stop();
+            cameraPipeline = null;
         }
     }
 }
\ No newline at end of file
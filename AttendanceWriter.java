@@ -0,0 +1,280 @@
+package io.itpl.database;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Writes attendance marks through a local journal.
+// mark() appends to the AttendanceJournal and its future completes as soon as the mark is on
+// local disk, so a slow or unreachable database never holds up the student. A background thread
+// replays the journal: it takes up to MAX_BATCH marks, writes them with one multi-row upsert and
+// only then moves the journal checkpoint. The unique key on (enrollmentNumber, date, subject)
+// makes replay idempotent, so marks written just before a crash, or by another kiosk, are left as
+// they are rather than duplicated. Repeats are answered from an AttendanceIndex that the writer
+// thread refreshes every few seconds, so they cost no I/O. Futures complete on the journal flush
+// thread, so UI callers hop back with Platform.runLater.
+public class AttendanceWriter
+{
+    private static final int MAX_BATCH = 200;
+    private static final long MAX_RETRY_MILLIS = 30_000;
+    private static final String STATUS_PRESENT = "Present";
+    private static final String UPSERT = "INSERT INTO attendance (enrollmentNumber, date, time, subject, status) VALUES ";
+    private static final String UPSERT_ROW = "(?, ?, ?, ?, ?)";
+    // A no-op update, so an existing row keeps its original time and reports 0 affected rows.
+    private static final String ON_DUPLICATE = " ON DUPLICATE KEY UPDATE id = id";
+    private static final String JOURNAL_DIR = System.getProperty("attendance.journal.dir", "attendance_journal");
+    private static final long INDEX_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(
+            Long.getLong("attendance.index.refreshSeconds", 5));
+    private static AttendanceWriter instance;
+
+    public enum Outcome
+    {
+        MARKED,
+        ALREADY_MARKED
+    }
+
+    private final AttendanceJournal journal;
+    private final AttendanceIndex index = new AttendanceIndex();
+    private long nextIndexRefresh;
+    private final AtomicLong marksWritten = new AtomicLong();
+    private final AtomicLong batchesWritten = new AtomicLong();
+    private final Thread worker;
+
+    private AttendanceWriter()
+    {
+        try
+        {
+            journal = AttendanceJournal.open(Paths.get(JOURNAL_DIR));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed to open attendance journal in " + JOURNAL_DIR, e);
+        }
+        worker = new Thread(this::run, "attendance-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public static synchronized AttendanceWriter getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new AttendanceWriter();
+        }
+        return instance;
+    }
+
+    public CompletableFuture<Outcome> mark(String enrollmentNumber, String subject)
+    {
+        return mark(enrollmentNumber, subject, LocalDate.now(), LocalTime.now());
+    }
+
+    public CompletableFuture<Outcome> mark(String enrollmentNumber, String subject, LocalDate date, LocalTime time)
+    {
+        if (!index.markIfAbsent(enrollmentNumber, subject, date))
+        {
+            return CompletableFuture.completedFuture(Outcome.ALREADY_MARKED);
+        }
+        try
+        {
+            return journal.append(new AttendanceJournal.Entry(enrollmentNumber, subject, date, time))
+                    .thenApply(durable -> Outcome.MARKED);
+        }
+        catch (IOException e)
+        {
+            index.unmark(enrollmentNumber, subject, date);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Preloads today's marks for the subject so "already marked" is answered from memory.
+    // The writer thread keeps them current with marks from other kiosks. The query runs in the
+    // background; the future completes once the marks are loaded, or failed to load.
+    public CompletableFuture<Void> openSession(String subject)
+    {
+        return CompletableFuture.runAsync(() -> {
+            try
+            {
+                index.load(subject);
+            }
+            catch (SQLException e)
+            {
+                System.err.println("Could not preload attendance for " + subject + ": " + e.getMessage());
+            }
+        });
+    }
+
+    public boolean isMarked(String enrollmentNumber, String subject)
+    {
+        return index.isMarked(enrollmentNumber, subject, LocalDate.now());
+    }
+
+    // Journaled marks not yet in the database.
+    public long getPendingCount()
+    {
+        return journal.getPendingCount();
+    }
+
+    public long getMarksWritten()
+    {
+        return marksWritten.get();
+    }
+
+    public long getBatchesWritten()
+    {
+        return batchesWritten.get();
+    }
+
+    private void run()
+    {
+        long retryMillis = 1000;
+        while (true)
+        {
+            refreshIndex();
+            AttendanceJournal.Batch batch;
+            try
+            {
+                batch = journal.read(MAX_BATCH, 1, TimeUnit.SECONDS);
+                if (batch.entries.isEmpty())
+                {
+                    continue;
+                }
+                writeOrQuarantine(batch.entries);
+                journal.commit(batch);
+                retryMillis = 1000;
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            catch (SQLException | IOException | RuntimeException e)
+            {
+                // The marks stay in the journal; the same batch is read again after the pause.
+                System.err.println("Failed to replay attendance journal, retrying in " + retryMillis + " ms: " + e.getMessage());
+                try
+                {
+                    Thread.sleep(retryMillis);
+                }
+                catch (InterruptedException interrupted)
+                {
+                    return;
+                }
+                retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+            }
+        }
+    }
+
+    private void refreshIndex()
+    {
+        long now = System.nanoTime();
+        if (now - nextIndexRefresh < 0)
+        {
+            return;
+        }
+        nextIndexRefresh = now + INDEX_REFRESH_NANOS;
+        try
+        {
+            index.refresh();
+        }
+        catch (SQLException e)
+        {
+            System.err.println("Could not refresh attendance index: " + e.getMessage());
+        }
+    }
+
+    // A batch the database rejects for good would otherwise be retried forever and block every
+    // mark behind it. Its marks are then written one at a time, and the ones still rejected are
+    // quarantined so the checkpoint can move past them.
+    private void writeOrQuarantine(List<AttendanceJournal.Entry> batch) throws SQLException, IOException
+    {
+        try
+        {
+            write(batch);
+            return;
+        }
+        catch (SQLException e)
+        {
+            if (!isPermanent(e))
+            {
+                throw e;
+            }
+            System.err.println("Database rejected a batch of " + batch.size() + " attendance marks ("
+                    + e.getSQLState() + "), writing them one at a time: " + e.getMessage());
+        }
+        for (AttendanceJournal.Entry entry : batch)
+        {
+            try
+            {
+                write(List.of(entry));
+            }
+            catch (SQLException e)
+            {
+                if (!isPermanent(e))
+                {
+                    throw e;
+                }
+                Path path = journal.quarantine(entry, e.getSQLState() + " " + e.getMessage());
+                System.err.println("QUARANTINED attendance mark " + entry.enrollmentNumber + " / " + entry.subject
+                        + " / " + entry.date + " to " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Errors caused by the marks themselves: bad data (SQLState class 22) or a constraint they
+    // violate (class 23). Other non-transient errors, such as a missing table or bad credentials,
+    // would reject every mark alike, so those are retried rather than draining the journal.
+    static boolean isPermanent(SQLException e)
+    {
+        String state = e.getSQLState();
+        return e instanceof SQLDataException || e instanceof SQLIntegrityConstraintViolationException
+                || (state != null && (state.startsWith("22") || state.startsWith("23")));
+    }
+
+    private void write(List<AttendanceJournal.Entry> batch) throws SQLException
+    {
+        try (Connection conn = DatabaseConnection.getConnection())
+        {
+            marksWritten.addAndGet(upsert(conn, batch));
+            batchesWritten.incrementAndGet();
+        }
+    }
+
+    // Writes the marks in a single statement and returns how many of them were new rows.
+    static int upsert(Connection conn, List<AttendanceJournal.Entry> marks) throws SQLException
+    {
+        StringBuilder sql = new StringBuilder(UPSERT);
+        for (int i = 0; i < marks.size(); i++)
+        {
+            sql.append(i == 0 ? UPSERT_ROW : ", " + UPSERT_ROW);
+        }
+        sql.append(ON_DUPLICATE);
+
+        try (PreparedStatement pstmt = conn.prepareStatement(sql.toString()))
+        {
+            int parameter = 1;
+            for (AttendanceJournal.Entry entry : marks)
+            {
+                pstmt.setString(parameter++, entry.enrollmentNumber);
+                pstmt.setDate(parameter++, Date.valueOf(entry.date));
+                pstmt.setTime(parameter++, Time.valueOf(entry.time));
+                pstmt.setString(parameter++, entry.subject);
+                pstmt.setString(parameter++, STATUS_PRESENT);
+            }
+            return pstmt.executeUpdate();
+        }
+    }
+}
\ No newline at end of file
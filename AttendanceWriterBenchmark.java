@@ -0,0 +1,101 @@
+package io.itpl.database;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Measures attendance marks per second against the configured database: the old per-mark
+// SELECT + INSERT on a fresh connection, then the same number of marks through AttendanceWriter,
+// timed both to acknowledgement (durable in the journal) and to the end of the database replay.
+// Rows are written under a throwaway subject and deleted afterwards.
+//
+// Usage: AttendanceWriterBenchmark [marks]
+public class AttendanceWriterBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int marks = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        String subject = "BENCH-" + System.currentTimeMillis();
+        LocalDate date = LocalDate.now();
+
+        try
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < marks; i++)
+            {
+                markSynchronously("S" + i, subject + "-sync", date);
+            }
+            report("synchronous", marks, System.nanoTime() - start);
+
+            AttendanceWriter writer = AttendanceWriter.getInstance();
+            List<CompletableFuture<AttendanceWriter.Outcome>> results = new ArrayList<>(marks);
+            start = System.nanoTime();
+            for (int i = 0; i < marks; i++)
+            {
+                results.add(writer.mark("S" + i, subject + "-async", date, LocalTime.now()));
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+            report("AttendanceWriter (journaled)", marks, System.nanoTime() - start);
+            while (writer.getPendingCount() > 0)
+            {
+                Thread.sleep(10);
+            }
+            report("AttendanceWriter (replayed)", marks, System.nanoTime() - start);
+            System.out.printf("AttendanceWriter: %d batches, %.1f marks/batch%n", writer.getBatchesWritten(),
+                    writer.getMarksWritten() / (double) Math.max(1, writer.getBatchesWritten()));
+        }
+        finally
+        {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("DELETE FROM attendance WHERE subject LIKE ?"))
+            {
+                stmt.setString(1, subject + "%");
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    private static void markSynchronously(String enrollmentNumber, String subject, LocalDate date) throws SQLException
+    {
+        try (Connection conn = DatabaseConnection.getConnection())
+        {
+            try (PreparedStatement checkStmt = conn.prepareStatement(
+                    "SELECT * FROM attendance WHERE enrollmentNumber = ? AND date = ? AND subject = ?"))
+            {
+                checkStmt.setString(1, enrollmentNumber);
+                checkStmt.setDate(2, Date.valueOf(date));
+                checkStmt.setString(3, subject);
+                try (ResultSet rs = checkStmt.executeQuery())
+                {
+                    if (rs.next())
+                    {
+                        return;
+                    }
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO attendance (enrollmentNumber, date, time, subject, status) VALUES (?, ?, ?, ?, ?)"))
+            {
+                pstmt.setString(1, enrollmentNumber);
+                pstmt.setDate(2, Date.valueOf(date));
+                pstmt.setTime(3, Time.valueOf(LocalTime.now()));
+                pstmt.setString(4, subject);
+                pstmt.setString(5, "Present");
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    private static void report(String name, int marks, long nanos)
+    {
+        System.out.printf("%s: %d marks in %.2f s, %.0f marks/s%n", name, marks, nanos / 1e9, marks / (nanos / 1e9));
+    }
+}
\ No newline at end of file
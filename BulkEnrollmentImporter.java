@@ -0,0 +1,378 @@
+package io.itpl.facerecognition;
+
+import io.itpl.database.DatabaseConnection;
+import io.itpl.database.SchemaMigrations;
+import io.itpl.database.SubjectRoster;
+import io.itpl.ui.RegisterUserScreen;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC1;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Enrolls a whole intake without the registration screen.
+//
+// Photos come from a directory or a zip. A photo belongs to the student named by its parent
+// directory (<enrollmentNumber>/front.jpg) or, at the top level, by the part of its file name
+// before the first '_' or '.' (<enrollmentNumber>_1.jpg). Names come from a CSV of
+// enrollmentNumber,name.
+//
+// Photos are decoded, saved as PNG as captured_images/<enrollmentNumber>/import_<n>.png and
+// face-detected on all cores. Numbering continues after the highest import_<n> already there, so
+// running an import again never overwrites a photo. Detection goes through the trainer's face crop
+// cache, so the final training run reuses every crop instead of detecting again. Photos without a face are removed. Students with
+// at least one usable photo are inserted into users in JDBC batches, skipping ones that already
+// exist, and the model is built once at the end. An optional roster CSV of subject,enrollmentNumber
+// is loaded into subject_roster through SubjectRoster.
+//
+// Usage: BulkEnrollmentImporter <photos directory or zip> <names.csv> [roster.csv]
+public class BulkEnrollmentImporter
+{
+    private static final int INSERT_BATCH = 500;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("png", "jpg", "jpeg", "bmp");
+    private static final Pattern IMPORT_NAME = Pattern.compile("import_(\\d{1,9})\\.png");
+
+    private interface PhotoSource
+    {
+        String getName();
+
+        byte[] read() throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 2)
+        {
+            System.err.println("Usage: BulkEnrollmentImporter <photos directory or zip> <names.csv> [roster.csv]");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        SchemaMigrations.migrate();
+        Map<String, String> names = readNames(Paths.get(args[1]));
+        Path photos = Paths.get(args[0]);
+
+        FaceRecognitionTrainer trainer = new FaceRecognitionTrainer();
+        Map<String, AtomicInteger> usablePhotos = new ConcurrentHashMap<>();
+        int photoCount;
+        if (Files.isDirectory(photos))
+        {
+            List<PhotoSource> sources = new ArrayList<>();
+            try (Stream<Path> files = Files.walk(photos))
+            {
+                files.filter(Files::isRegularFile).forEach(file -> sources.add(new PhotoSource()
+                {
+                    @Override
+                    public String getName()
+                    {
+                        return photos.relativize(file).toString().replace('\\', '/');
+                    }
+
+                    @Override
+                    public byte[] read() throws IOException
+                    {
+                        return Files.readAllBytes(file);
+                    }
+                }));
+            }
+            photoCount = importPhotos(trainer, sources, names, usablePhotos);
+        }
+        else
+        {
+            try (ZipFile zip = new ZipFile(photos.toFile()))
+            {
+                List<PhotoSource> sources = new ArrayList<>();
+                for (ZipEntry entry : Collections.list(zip.entries()))
+                {
+                    if (entry.isDirectory())
+                    {
+                        continue;
+                    }
+                    sources.add(new PhotoSource()
+                    {
+                        @Override
+                        public String getName()
+                        {
+                            return entry.getName();
+                        }
+
+                        @Override
+                        public byte[] read() throws IOException
+                        {
+                            try (InputStream in = zip.getInputStream(entry))
+                            {
+                                return in.readAllBytes();
+                            }
+                        }
+                    });
+                }
+                photoCount = importPhotos(trainer, sources, names, usablePhotos);
+            }
+        }
+        double importSeconds = (System.nanoTime() - start) / 1e9;
+
+        List<String> enrolled = new ArrayList<>(usablePhotos.keySet());
+        Collections.sort(enrolled);
+        int inserted = insertUsers(enrolled, names);
+        if (args.length > 2)
+        {
+            SubjectRoster.importCsv(Paths.get(args[2]));
+        }
+        for (String enrollmentNumber : names.keySet())
+        {
+            if (!usablePhotos.containsKey(enrollmentNumber))
+            {
+                System.err.println("No usable photo for " + enrollmentNumber + ", not enrolled");
+            }
+        }
+        int usable = usablePhotos.values().stream().mapToInt(AtomicInteger::get).sum();
+        System.out.printf("Imported %d of %d photos for %d students in %.1f s (%.1f photos/s); %d new users%n",
+                usable, photoCount, enrolled.size(), importSeconds, photoCount / Math.max(importSeconds, 1e-9), inserted);
+
+        if (!enrolled.isEmpty())
+        {
+            long trainStart = System.nanoTime();
+            trainer.trainModel();
+            System.out.printf("Model built in %.1f s%n", (System.nanoTime() - trainStart) / 1e9);
+        }
+        DatabaseConnection.shutdown();
+    }
+
+    // Saves and face-checks every photo in parallel; returns how many image files were seen.
+    private static int importPhotos(FaceRecognitionTrainer trainer, List<PhotoSource> sources, Map<String, String> names,
+                                    Map<String, AtomicInteger> usablePhotos) throws InterruptedException
+    {
+        // Seeded per student from the photos already on disk, once, under the map's lock.
+        Map<String, AtomicInteger> photoNumbers = new ConcurrentHashMap<>();
+        List<PhotoSource> images = new ArrayList<>();
+        for (PhotoSource source : sources)
+        {
+            String name = source.getName();
+            int dot = name.lastIndexOf('.');
+            if (dot > 0 && IMAGE_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase()))
+            {
+                images.add(source);
+            }
+        }
+
+        // Detectors are not thread-safe, so every worker thread gets its own instance; all of them are
+        // closed once the pool has terminated.
+        Queue<FaceDetector> createdDetectors = new ConcurrentLinkedQueue<>();
+        ThreadLocal<FaceDetector> detectors = ThreadLocal.withInitial(() -> {
+            FaceDetector detector = FaceDetector.create();
+            createdDetectors.add(detector);
+            return detector;
+        });
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try
+        {
+            pool.submit(() -> images.parallelStream().forEach(source -> {
+                String enrollmentNumber = enrollmentNumberOf(source.getName());
+                if (!names.containsKey(enrollmentNumber))
+                {
+                    System.err.println("Skipping " + source.getName() + ": " + enrollmentNumber + " is not in the names file");
+                    return;
+                }
+                int number = photoNumbers.computeIfAbsent(enrollmentNumber,
+                        key -> new AtomicInteger(highestImportNumber(key))).incrementAndGet();
+                try
+                {
+                    Path saved = savePhoto(source, enrollmentNumber, number);
+                    if (saved == null)
+                    {
+                        return;
+                    }
+                    Mat face = trainer.extractFaceCached(detectors.get(), saved.toString());
+                    if (face == null)
+                    {
+                        Files.deleteIfExists(saved);
+                        return;
+                    }
+                    face.release();
+                    usablePhotos.computeIfAbsent(enrollmentNumber, key -> new AtomicInteger()).incrementAndGet();
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException("Failed to import " + source.getName(), e);
+                }
+            })).get();
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Photo import failed", e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (FaceDetector detector : createdDetectors)
+            {
+                detector.close();
+            }
+        }
+        return images.size();
+    }
+
+    // Largest n among captured_images/<enrollmentNumber>/import_<n>.png, or 0.
+    private static int highestImportNumber(String enrollmentNumber)
+    {
+        Path dir = Paths.get(RegisterUserScreen.BASE_IMAGE_PATH, enrollmentNumber);
+        if (!Files.isDirectory(dir))
+        {
+            return 0;
+        }
+        try (Stream<Path> files = Files.list(dir))
+        {
+            return files.map(path -> IMPORT_NAME.matcher(path.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .mapToInt(matcher -> Integer.parseInt(matcher.group(1)))
+                    .max()
+                    .orElse(0);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed to list " + dir, e);
+        }
+    }
+
+    // Writes the photo as captured_images/<enrollmentNumber>/import_<number>.png, re-encoding
+    // anything that is not already PNG; null if it cannot be decoded.
+    private static Path savePhoto(PhotoSource source, String enrollmentNumber, int number) throws IOException
+    {
+        Path dir = Paths.get(RegisterUserScreen.BASE_IMAGE_PATH, enrollmentNumber);
+        Files.createDirectories(dir);
+        Path target = dir.resolve("import_" + number + ".png");
+        byte[] bytes = source.read();
+        if (source.getName().toLowerCase().endsWith(".png"))
+        {
+            Files.write(target, bytes);
+            return target;
+        }
+
+        try (BytePointer data = new BytePointer(bytes);
+             Mat encoded = new Mat(1, bytes.length, CV_8UC1, data);
+             Mat image = imdecode(encoded, IMREAD_COLOR))
+        {
+            if (image.empty())
+            {
+                System.err.println("Could not decode " + source.getName());
+                return null;
+            }
+            imwrite(target.toString(), image);
+        }
+        return target;
+    }
+
+    private static String enrollmentNumberOf(String name)
+    {
+        int slash = name.lastIndexOf('/');
+        if (slash > 0)
+        {
+            String parent = name.substring(0, slash);
+            return parent.substring(parent.lastIndexOf('/') + 1);
+        }
+        String file = name.substring(slash + 1);
+        int end = file.indexOf('_');
+        if (end < 0)
+        {
+            end = file.indexOf('.');
+        }
+        return end < 0 ? file : file.substring(0, end);
+    }
+
+    private static Map<String, String> readNames(Path csv) throws IOException
+    {
+        Map<String, String> names = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(csv))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                int comma = line.indexOf(',');
+                if (comma <= 0)
+                {
+                    continue;
+                }
+                String enrollmentNumber = line.substring(0, comma).trim();
+                String name = line.substring(comma + 1).trim();
+                if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\""))
+                {
+                    name = name.substring(1, name.length() - 1).replace("\"\"", "\"");
+                }
+                if (enrollmentNumber.equalsIgnoreCase("enrollmentNumber"))
+                {
+                    continue;
+                }
+                names.put(enrollmentNumber, name);
+            }
+        }
+        return names;
+    }
+
+    // Inserts the students not yet in users, INSERT_BATCH rows per JDBC batch, in one transaction.
+    private static int insertUsers(List<String> enrollmentNumbers, Map<String, String> names) throws SQLException
+    {
+        try (Connection conn = DatabaseConnection.getConnection())
+        {
+            Set<String> existing = new HashSet<>();
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT enrollmentNumber FROM users");
+                 ResultSet rs = stmt.executeQuery())
+            {
+                while (rs.next())
+                {
+                    existing.add(rs.getString(1));
+                }
+            }
+
+            int inserted = 0;
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO users (enrollmentNumber, name) VALUES (?, ?)"))
+            {
+                for (String enrollmentNumber : enrollmentNumbers)
+                {
+                    if (!existing.add(enrollmentNumber))
+                    {
+                        continue;
+                    }
+                    pstmt.setString(1, enrollmentNumber);
+                    pstmt.setString(2, names.get(enrollmentNumber));
+                    pstmt.addBatch();
+                    if (++inserted % INSERT_BATCH == 0)
+                    {
+                        pstmt.executeBatch();
+                    }
+                }
+                pstmt.executeBatch();
+                conn.commit();
+            }
+            catch (SQLException e)
+            {
+                conn.rollback();
+                throw e;
+            }
+            return inserted;
+        }
+    }
+}
\ No newline at end of file
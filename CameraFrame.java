@@ -0,0 +1,64 @@
+package io.itpl.ui;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.RectVector;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A pooled camera frame published by CameraService.
+// The capture thread fills image; in the CameraPipeline the detect stage fills gray and faces
+// before handing the frame on. Every holder of a reference must call release() when done; the
+// last release returns the frame and its native buffers to the pool.
+public class CameraFrame {
+    final Mat image = new Mat();
+    final Mat gray = new Mat();
+    final RectVector faces = new RectVector();
+    private final AtomicInteger references = new AtomicInteger();
+    private final BlockingQueue<CameraFrame> pool;
+    long sequence;
+    long captureNanos;
+
+    CameraFrame(BlockingQueue<CameraFrame> pool) {
+        this.pool = pool;
+    }
+
+    public Mat getImage() {
+        return image;
+    }
+
+    public Mat getGray() {
+        return gray;
+    }
+
+    public RectVector getFaces() {
+        return faces;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            faces.clear();
+            if (!pool.offer(this)) {
+                close();
+            }
+        }
+    }
+
+    void close() {
+        image.close();
+        gray.close();
+        faces.close();
+    }
+}
\ No newline at end of file
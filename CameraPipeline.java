@@ -0,0 +1,224 @@
+package io.itpl.ui;
+
+import io.itpl.facerecognition.FaceDetector;
+import org.bytedeco.javacv.FrameGrabber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_BGR2GRAY;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvtColor;
+
+// Camera engine split into stages connected by latest-frame-wins FrameRings:
+//
+//   capture --> render                  (every frame, camera rate)
+//           \-> detect --> recognize    (only while analysis is enabled)
+//
+// Capture is a CameraService subscription running on the service's thread; render, detect and
+// recognize have a thread each. Capture never waits on a downstream stage; a stage that falls
+// behind drops its oldest queued frame, which shows up in that ring's drop counter in the
+// periodic statistics line. A FramePacer picks which frames are analysed and rendered.
+public class CameraPipeline {
+    private static final int RING_CAPACITY = 2;
+    private static final long STATS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final CameraService camera;
+    private final FaceDetector detector;
+    private final BooleanSupplier analysisEnabled;
+    private final Consumer<CameraFrame> recognizer;
+    private final Consumer<CameraFrame> renderer;
+    private final FrameRing<CameraFrame> renderRing = new FrameRing<>("render", RING_CAPACITY, CameraFrame::release);
+    private final FrameRing<CameraFrame> detectRing = new FrameRing<>("detect", RING_CAPACITY, CameraFrame::release);
+    private final FrameRing<CameraFrame> recognizeRing = new FrameRing<>("recognize", RING_CAPACITY, CameraFrame::release);
+    private final StageCounter captureCounter = new StageCounter("capture");
+    private final StageCounter renderCounter = new StageCounter("render");
+    private final StageCounter detectCounter = new StageCounter("detect");
+    private final StageCounter recognizeCounter = new StageCounter("recognize");
+    private final FramePacer pacer = FramePacer.fromSystemProperties();
+    private final List<Thread> threads = new ArrayList<>();
+    private CameraService.Subscription subscription;
+    private long nextStats;
+    private volatile boolean running;
+
+    public CameraPipeline(CameraService camera, FaceDetector detector, BooleanSupplier analysisEnabled,
+                          Consumer<CameraFrame> recognizer, Consumer<CameraFrame> renderer) {
+        this.camera = camera;
+        this.detector = detector;
+        this.analysisEnabled = analysisEnabled;
+        this.recognizer = recognizer;
+        this.renderer = renderer;
+    }
+
+    public synchronized void start() throws FrameGrabber.Exception {
+        if (running) {
+            return;
+        }
+        running = true;
+        nextStats = System.nanoTime() + STATS_INTERVAL_NANOS;
+        threads.add(startThread("camera-render", () -> consumeLoop(renderRing, renderCounter, renderer)));
+        threads.add(startThread("camera-detect", () -> consumeLoop(detectRing, detectCounter, this::detect)));
+        threads.add(startThread("camera-recognize", () -> consumeLoop(recognizeRing, recognizeCounter, this::recognize)));
+        try {
+            subscription = camera.subscribe(this::capture);
+        } catch (FrameGrabber.Exception e) {
+            stop();
+            throw e;
+        }
+    }
+
+    // Stops producers before draining their rings: closing the subscription waits out a capture
+    // call in progress, and every stage thread has exited before the rings are cleared, so no
+    // frame is offered after the clear and every pooled frame is released.
+    public synchronized void stop() {
+        running = false;
+        if (subscription != null) {
+            subscription.close();
+            subscription = null;
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        threads.clear();
+        renderRing.clear();
+        detectRing.clear();
+        recognizeRing.clear();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public FramePacer getPacer() {
+        return pacer;
+    }
+
+    private Thread startThread(String name, Runnable body) {
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    // Runs on the camera thread for every captured frame.
+    private void capture(CameraFrame frame) {
+        if (!running) {
+            return;
+        }
+        long start = System.nanoTime();
+        boolean analyze = analysisEnabled.getAsBoolean() && pacer.shouldAnalyze(frame, start);
+        boolean render = pacer.shouldRender(start);
+        if (render) {
+            frame.retain();
+            renderRing.offer(frame);
+        }
+        if (analyze) {
+            frame.retain();
+            detectRing.offer(frame);
+        }
+        captureCounter.record(System.nanoTime() - start);
+
+        if (start >= nextStats) {
+            logStatistics();
+            nextStats = start + STATS_INTERVAL_NANOS;
+        }
+    }
+
+    private void detect(CameraFrame frame) {
+        long start = System.nanoTime();
+        cvtColor(frame.image, frame.gray, COLOR_BGR2GRAY);
+        detector.detect(frame.gray, frame.faces);
+        pacer.detectFinished(System.nanoTime() - start, (int) frame.faces.size(), frame.captureNanos);
+        frame.retain();
+        recognizeRing.offer(frame);
+    }
+
+    private void recognize(CameraFrame frame) {
+        long start = System.nanoTime();
+        recognizer.accept(frame);
+        pacer.recognizeFinished(System.nanoTime() - start);
+    }
+
+    private void consumeLoop(FrameRing<CameraFrame> ring, StageCounter counter, Consumer<CameraFrame> stage) {
+        while (running) {
+            CameraFrame frame;
+            try {
+                frame = ring.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (frame == null) {
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                stage.accept(frame);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                frame.release();
+                counter.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    public String getStatistics() {
+        return "Camera pipeline (" + pacer + "): " + captureCounter + "; " + renderCounter + ", " + renderRing + "; "
+                + detectCounter + ", " + detectRing + "; " + recognizeCounter + ", " + recognizeRing;
+    }
+
+    private void logStatistics() {
+        System.out.println(getStatistics());
+        captureCounter.reset();
+        renderCounter.reset();
+        detectCounter.reset();
+        recognizeCounter.reset();
+    }
+
+    // Frames handled and busy time of one stage since the last statistics line.
+    private static class StageCounter {
+        private final String name;
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private volatile long since = System.nanoTime();
+
+        StageCounter(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos) {
+            frames.incrementAndGet();
+            busyNanos.addAndGet(nanos);
+        }
+
+        void reset() {
+            frames.set(0);
+            busyNanos.set(0);
+            since = System.nanoTime();
+        }
+
+        @Override
+        public String toString() {
+            long count = frames.get();
+            double seconds = Math.max(1e-9, (System.nanoTime() - since) / 1e9);
+            return String.format("%s %.1f fps, %.1f ms/frame", name, count / seconds,
+                    count == 0 ? 0 : busyNanos.get() / 1e6 / count);
+        }
+    }
+}
\ No newline at end of file
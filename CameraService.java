@@ -0,0 +1,174 @@
+package io.itpl.ui;
+
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.javacv.OpenCVFrameGrabber;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Application-wide owner of a camera device.
+// The device is opened on the first subscription and stays open when screens come and go, so
+// switching screens does not reopen the camera. A single capture thread copies every grabbed
+// frame once into a pooled CameraFrame and hands the same frame to every subscriber.
+//
+// Subscribers are called on the capture thread and must return quickly. The frame is only valid
+// during the call; a subscriber that keeps it for later calls retain() and then release().
+// Subscription.close() returns only once no call to that subscriber is in progress.
+public class CameraService {
+    private static final int POOL_SIZE = 12;
+    private static final Map<Integer, CameraService> DEVICES = new HashMap<>();
+
+    private final int device;
+    private final CopyOnWriteArrayList<Consumer<CameraFrame>> subscribers = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<CameraFrame> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final AtomicLong framesCaptured = new AtomicLong();
+    private final Object deliveryLock = new Object();
+    private FrameGrabber grabber;
+    private Thread captureThread;
+    private volatile boolean running;
+
+    private CameraService(int device) {
+        this.device = device;
+    }
+
+    public static synchronized CameraService forDevice(int device) {
+        return DEVICES.computeIfAbsent(device, CameraService::new);
+    }
+
+    public static CameraService getDefault() {
+        return forDevice(0);
+    }
+
+    public static synchronized void shutdownAll() {
+        for (CameraService service : DEVICES.values()) {
+            service.shutdown();
+        }
+    }
+
+    // Opens the device if needed and starts delivering frames to the subscriber.
+    public Subscription subscribe(Consumer<CameraFrame> subscriber) throws FrameGrabber.Exception {
+        start();
+        subscribers.add(subscriber);
+        return new Subscription(subscriber);
+    }
+
+    private synchronized void start() throws FrameGrabber.Exception {
+        if (running) {
+            return;
+        }
+        grabber = new OpenCVFrameGrabber(device);
+        grabber.start();
+        running = true;
+        captureThread = new Thread(this::captureLoop, "camera-" + device);
+        captureThread.setDaemon(true);
+        captureThread.start();
+        System.out.println("Camera " + device + " opened.");
+    }
+
+    // The grabber and the pool are only released once the capture thread has exited; a grab in
+    // progress returns with the next frame, so the wait is one frame interval.
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        captureThread.interrupt();
+        boolean interrupted = false;
+        while (captureThread.isAlive()) {
+            try {
+                captureThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            grabber.stop();
+            grabber.release();
+        } catch (FrameGrabber.Exception e) {
+            e.printStackTrace();
+        }
+        CameraFrame frame;
+        while ((frame = pool.poll()) != null) {
+            frame.close();
+        }
+        System.out.println("Camera " + device + " closed.");
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getFramesCaptured() {
+        return framesCaptured.get();
+    }
+
+    private void captureLoop() {
+        OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+        long sequence = 0;
+        try {
+            while (running) {
+                Frame grabbed = grabber.grab();
+                long start = System.nanoTime();
+                Mat mat = grabbed == null ? null : converter.convert(grabbed);
+                if (mat == null || mat.empty() || subscribers.isEmpty()) {
+                    continue;
+                }
+
+                CameraFrame frame = pool.poll();
+                if (frame == null) {
+                    frame = new CameraFrame(pool);
+                }
+                mat.copyTo(frame.image);
+                frame.sequence = sequence++;
+                frame.captureNanos = start;
+                framesCaptured.incrementAndGet();
+
+                frame.retain();
+                try {
+                    synchronized (deliveryLock) {
+                        for (Consumer<CameraFrame> subscriber : subscribers) {
+                            try {
+                                subscriber.accept(frame);
+                            } catch (RuntimeException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    }
+                } finally {
+                    frame.release();
+                }
+            }
+        } catch (FrameGrabber.Exception e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public class Subscription implements AutoCloseable {
+        private final Consumer<CameraFrame> subscriber;
+
+        private Subscription(Consumer<CameraFrame> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        // Waits for a delivery in progress, so the subscriber is not called once this returns.
+        @Override
+        public void close() {
+            synchronized (deliveryLock) {
+                subscribers.remove(subscriber);
+            }
+        }
+    }
+}
\ No newline at end of file
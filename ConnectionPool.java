@@ -0,0 +1,455 @@
+package io.itpl.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded pool of JDBC connections.
+// At most maxSize connections are out at once; getConnection() waits up to acquireTimeoutMillis
+// for one to come back. Callers get a proxy whose close() returns the physical connection to the
+// pool, rolled back and in auto-commit mode, with any statements the caller left open closed and
+// any read-only, isolation or catalog change undone. Statements are proxied too, so their
+// getConnection() returns the pooled proxy; objects reached through them, such as
+// ResultSet.getStatement().getConnection() or DatabaseMetaData.getConnection(), still expose the
+// physical connection and must not be closed or kept. Idle connections are reused most recent
+// first, and one that sat idle longer than validateAfterMillis is checked with isValid() before it
+// is handed out.
+public class ConnectionPool
+{
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    public interface ConnectionFactory
+    {
+        Connection create() throws SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long validateAfterMillis;
+    private final Semaphore permits;
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong acquires = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private volatile boolean shutdown;
+
+    public ConnectionPool(ConnectionFactory factory, int maxSize, long acquireTimeoutMillis, long validateAfterMillis)
+    {
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    public Connection getConnection() throws SQLException
+    {
+        if (shutdown)
+        {
+            throw new SQLException("Connection pool is shut down");
+        }
+        long start = System.nanoTime();
+        try
+        {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS))
+            {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out after " + acquireTimeoutMillis + " ms waiting for a database connection ("
+                        + maxSize + " in use)");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection", e);
+        }
+
+        Connection physical;
+        try
+        {
+            physical = takeIdle();
+            if (physical == null)
+            {
+                physical = factory.create();
+                created.incrementAndGet();
+            }
+        }
+        catch (SQLException | RuntimeException e)
+        {
+            permits.release();
+            throw e;
+        }
+
+        long waited = System.nanoTime() - start;
+        acquires.incrementAndGet();
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        active.incrementAndGet();
+        PooledConnection handler = new PooledConnection(physical);
+        Connection proxy = (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, handler);
+        handler.proxy = proxy;
+        return proxy;
+    }
+
+    // Closes idle connections; connections still in use are closed when they are returned.
+    public void shutdown()
+    {
+        shutdown = true;
+        IdleConnection connection;
+        while ((connection = pollIdle()) != null)
+        {
+            closeQuietly(connection.physical);
+        }
+    }
+
+    public Stats getStats()
+    {
+        int idleCount;
+        synchronized (idle)
+        {
+            idleCount = idle.size();
+        }
+        return new Stats(active.get(), idleCount, permits.getQueueLength(), acquires.get(), waitNanos.get(),
+                maxWaitNanos.get(), timeouts.get(), created.get(), discarded.get(), System.nanoTime() - startNanos);
+    }
+
+    private Connection takeIdle()
+    {
+        IdleConnection connection;
+        while ((connection = pollIdle()) != null)
+        {
+            long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connection.idleSinceNanos);
+            if (idleMillis < validateAfterMillis || isValid(connection.physical))
+            {
+                return connection.physical;
+            }
+            discarded.incrementAndGet();
+            closeQuietly(connection.physical);
+        }
+        return null;
+    }
+
+    private IdleConnection pollIdle()
+    {
+        synchronized (idle)
+        {
+            return idle.pollFirst();
+        }
+    }
+
+    private void release(PooledConnection connection)
+    {
+        Connection physical = connection.physical;
+        active.decrementAndGet();
+        try
+        {
+            if (shutdown || physical.isClosed())
+            {
+                discard(physical);
+                return;
+            }
+            connection.closeStatements();
+            if (!physical.getAutoCommit())
+            {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            connection.restoreSettings();
+            physical.clearWarnings();
+            synchronized (idle)
+            {
+                idle.addFirst(new IdleConnection(physical, System.nanoTime()));
+            }
+        }
+        catch (SQLException e)
+        {
+            discard(physical);
+        }
+        finally
+        {
+            permits.release();
+        }
+    }
+
+    private void discard(Connection physical)
+    {
+        discarded.incrementAndGet();
+        closeQuietly(physical);
+    }
+
+    private static boolean isValid(Connection physical)
+    {
+        try
+        {
+            return physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        }
+        catch (SQLException e)
+        {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection physical)
+    {
+        try
+        {
+            physical.close();
+        }
+        catch (SQLException e)
+        {
+            // Already broken; nothing left to release.
+        }
+    }
+
+    private class PooledConnection implements InvocationHandler
+    {
+        private final Connection physical;
+        private final Set<Statement> openStatements = Collections.newSetFromMap(new IdentityHashMap<>());
+        private Connection proxy;
+        private boolean closed;
+        // Values from before the caller's first change; null when the setting was not touched.
+        private Boolean originalReadOnly;
+        private Integer originalIsolation;
+        private String originalCatalog;
+        private boolean catalogChanged;
+
+        PooledConnection(Connection physical)
+        {
+            this.physical = physical;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            switch (method.getName())
+            {
+                case "close":
+                    if (!closed)
+                    {
+                        closed = true;
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical;
+                default:
+                    if (closed)
+                    {
+                        throw new SQLException("Connection has been returned to the pool");
+                    }
+                    rememberSetting(method.getName());
+                    Object result = invokePhysical(physical, method, args);
+                    if (result instanceof Statement)
+                    {
+                        return wrapStatement((Statement) result, method.getReturnType());
+                    }
+                    return result;
+            }
+        }
+
+        private void rememberSetting(String methodName) throws SQLException
+        {
+            switch (methodName)
+            {
+                case "setReadOnly":
+                    if (originalReadOnly == null)
+                    {
+                        originalReadOnly = physical.isReadOnly();
+                    }
+                    break;
+                case "setTransactionIsolation":
+                    if (originalIsolation == null)
+                    {
+                        originalIsolation = physical.getTransactionIsolation();
+                    }
+                    break;
+                case "setCatalog":
+                    if (!catalogChanged)
+                    {
+                        originalCatalog = physical.getCatalog();
+                        catalogChanged = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private Object wrapStatement(Statement statement, Class<?> type)
+        {
+            openStatements.add(statement);
+            return Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[] {type},
+                    new PooledStatement(this, statement));
+        }
+
+        synchronized void statementClosed(Statement statement)
+        {
+            openStatements.remove(statement);
+        }
+
+        synchronized void closeStatements() throws SQLException
+        {
+            List<Statement> statements = new ArrayList<>(openStatements);
+            openStatements.clear();
+            for (Statement statement : statements)
+            {
+                statement.close();
+            }
+        }
+
+        synchronized void restoreSettings() throws SQLException
+        {
+            if (originalReadOnly != null)
+            {
+                physical.setReadOnly(originalReadOnly);
+                originalReadOnly = null;
+            }
+            if (originalIsolation != null)
+            {
+                physical.setTransactionIsolation(originalIsolation);
+                originalIsolation = null;
+            }
+            if (catalogChanged)
+            {
+                physical.setCatalog(originalCatalog);
+                catalogChanged = false;
+            }
+        }
+    }
+
+    // Keeps the statement's getConnection() on the pooled proxy and tells the pool when it closes.
+    private static class PooledStatement implements InvocationHandler
+    {
+        private final PooledConnection connection;
+        private final Statement physical;
+
+        PooledStatement(PooledConnection connection, Statement physical)
+        {
+            this.connection = connection;
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            switch (method.getName())
+            {
+                case "getConnection":
+                    return connection.proxy;
+                case "close":
+                    connection.statementClosed(physical);
+                    physical.close();
+                    return null;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical;
+                default:
+                    return invokePhysical(physical, method, args);
+            }
+        }
+    }
+
+    private static Object invokePhysical(Object target, Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    private static class IdleConnection
+    {
+        final Connection physical;
+        final long idleSinceNanos;
+
+        IdleConnection(Connection physical, long idleSinceNanos)
+        {
+            this.physical = physical;
+            this.idleSinceNanos = idleSinceNanos;
+        }
+    }
+
+    public static class Stats
+    {
+        public final int active;
+        public final int idle;
+        public final int waiting;
+        public final long acquires;
+        public final long totalWaitNanos;
+        public final long maxWaitNanos;
+        public final long timeouts;
+        public final long created;
+        public final long discarded;
+        public final long uptimeNanos;
+
+        Stats(int active, int idle, int waiting, long acquires, long totalWaitNanos, long maxWaitNanos,
+              long timeouts, long created, long discarded, long uptimeNanos)
+        {
+            this.active = active;
+            this.idle = idle;
+            this.waiting = waiting;
+            this.acquires = acquires;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.timeouts = timeouts;
+            this.created = created;
+            this.discarded = discarded;
+            this.uptimeNanos = uptimeNanos;
+        }
+
+        public double getAverageWaitMillis()
+        {
+            return acquires == 0 ? 0 : totalWaitNanos / 1e6 / acquires;
+        }
+
+        // Physical connections opened per minute since the pool started.
+        public double getCreationRatePerMinute()
+        {
+            return uptimeNanos == 0 ? 0 : created / (uptimeNanos / 60e9);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("active=%d idle=%d waiting=%d acquires=%d avgWait=%.2fms maxWait=%.2fms timeouts=%d "
+                            + "created=%d (%.2f/min) discarded=%d",
+                    active, idle, waiting, acquires, getAverageWaitMillis(), maxWaitNanos / 1e6, timeouts,
+                    created, getCreationRatePerMinute(), discarded);
+        }
+    }
+}
\ No newline at end of file
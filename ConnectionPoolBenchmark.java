@@ -0,0 +1,120 @@
+package io.itpl.database;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Load test for mark latency with and without the connection pool.
+// Each thread repeatedly does the per-mark SELECT + INSERT, first on a fresh DriverManager
+// connection per mark, then on connections from DatabaseConnection; p50/p99 latency and
+// throughput are printed for both, followed by the pool statistics. Rows are written under a
+// throwaway subject and deleted afterwards.
+//
+// Usage: ConnectionPoolBenchmark [threads] [marksPerThread]
+public class ConnectionPoolBenchmark
+{
+    private interface ConnectionSource
+    {
+        Connection get() throws SQLException;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int marksPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        String subject = "BENCH-" + System.currentTimeMillis();
+
+        try
+        {
+            run("unpooled", DatabaseConnection::openConnection, subject + "-direct", threads, marksPerThread);
+            run("pooled", DatabaseConnection::getConnection, subject + "-pooled", threads, marksPerThread);
+            System.out.println("Pool: " + DatabaseConnection.getPoolStats());
+        }
+        finally
+        {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("DELETE FROM attendance WHERE subject LIKE ?"))
+            {
+                stmt.setString(1, subject + "%");
+                stmt.executeUpdate();
+            }
+            DatabaseConnection.shutdown();
+        }
+    }
+
+    private static void run(String name, ConnectionSource source, String subject, int threads, int marksPerThread)
+            throws InterruptedException
+    {
+        long[] latencies = new long[threads * marksPerThread];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        LocalDate date = LocalDate.now();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++)
+        {
+            int thread = t;
+            executor.execute(() -> {
+                for (int i = 0; i < marksPerThread; i++)
+                {
+                    long markStart = System.nanoTime();
+                    try (Connection conn = source.get())
+                    {
+                        mark(conn, "T" + thread + "-" + i, subject, date);
+                    }
+                    catch (SQLException e)
+                    {
+                        failures.incrementAndGet();
+                    }
+                    latencies[next.getAndIncrement()] = System.nanoTime() - markStart;
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.printf("%s: %d threads, %d marks in %.2f s (%.0f marks/s), p50 %.2f ms, p99 %.2f ms, %d failures%n",
+                name, threads, latencies.length, elapsed / 1e9, latencies.length / (elapsed / 1e9),
+                latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6, failures.get());
+    }
+
+    private static void mark(Connection conn, String enrollmentNumber, String subject, LocalDate date) throws SQLException
+    {
+        try (PreparedStatement checkStmt = conn.prepareStatement(
+                "SELECT id FROM attendance WHERE enrollmentNumber = ? AND date = ? AND subject = ?"))
+        {
+            checkStmt.setString(1, enrollmentNumber);
+            checkStmt.setDate(2, Date.valueOf(date));
+            checkStmt.setString(3, subject);
+            try (ResultSet rs = checkStmt.executeQuery())
+            {
+                if (rs.next())
+                {
+                    return;
+                }
+            }
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "INSERT INTO attendance (enrollmentNumber, date, time, subject, status) VALUES (?, ?, ?, ?, ?)"))
+        {
+            pstmt.setString(1, enrollmentNumber);
+            pstmt.setDate(2, Date.valueOf(date));
+            pstmt.setTime(3, Time.valueOf(LocalTime.now()));
+            pstmt.setString(4, subject);
+            pstmt.setString(5, "Present");
+            pstmt.executeUpdate();
+        }
+    }
+}
\ No newline at end of file
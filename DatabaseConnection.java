@@ -4,11 +4,22 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 
+// Pooled connections to the attendance database.
+// Connector/J caches server-side prepared statements per connection, so with the pool keeping
+// connections alive a repeated prepareStatement() reuses the parsed statement. Batched inserts
+// are rewritten into multi-row INSERTs. useAffectedRows makes an upsert that changed nothing
+// report 0 rows, which is how AttendanceWriter tells new marks from existing ones.
 public class DatabaseConnection
 {
-    private static final String URL = "jdbc:mysql://localhost:3306/sgp";
+    private static final String URL = "jdbc:mysql://localhost:3306/sgp"
+            + "?useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048"
+            + "&rewriteBatchedStatements=true&useAffectedRows=true";
     private static final String USER = "root";
     private static final String PASSWORD = "";
+    private static final ConnectionPool POOL = new ConnectionPool(DatabaseConnection::openConnection,
+            Integer.getInteger("db.pool.maxSize", 8),
+            Long.getLong("db.pool.acquireTimeoutMillis", 5000),
+            Long.getLong("db.pool.validateAfterMillis", 30_000));
 
     static
     {
@@ -27,7 +38,7 @@ public class DatabaseConnection
     {
         try
         {
-            return DriverManager.getConnection(URL, USER, PASSWORD);
+            return POOL.getConnection();
         }
         catch (SQLException e)
         {
@@ -36,4 +47,20 @@ public class DatabaseConnection
             throw e;
         }
     }
+
+    // A new, unpooled connection; for comparisons against the pool.
+    static Connection openConnection() throws SQLException
+    {
+        return DriverManager.getConnection(URL, USER, PASSWORD);
+    }
+
+    public static ConnectionPool.Stats getPoolStats()
+    {
+        return POOL.getStats();
+    }
+
+    public static void shutdown()
+    {
+        POOL.shutdown();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+package io.itpl.facerecognition;
+
+import io.itpl.ui.RegisterUserScreen;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.javacv.OpenCVFrameGrabber;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.RectVector;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.IMREAD_GRAYSCALE;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imread;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_BGR2GRAY;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvtColor;
+
+// Compares the face detector backends on the images under captured_images.
+// Every registration image contains exactly one face, so recall is the fraction of images with at
+// least one detection and extra detections are counted as false positives.
+//
+// With a recorded clip, also compares TrackingFaceDetector against a full detection on every
+// frame: time per frame and the IoU of each tracked box with the nearest detected box.
+//
+// Usage: DetectorBenchmark [rounds] [video]
+public class DetectorBenchmark
+{
+    public static void main(String[] args) throws IOException
+    {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+
+        List<Path> imagePaths;
+        try (Stream<Path> files = Files.walk(Paths.get(RegisterUserScreen.BASE_IMAGE_PATH)))
+        {
+            imagePaths = files.filter(path -> path.toString().toLowerCase().endsWith(".jpg")
+                    || path.toString().toLowerCase().endsWith(".png")).sorted().collect(Collectors.toList());
+        }
+        if (imagePaths.isEmpty())
+        {
+            System.err.println("No images found under " + RegisterUserScreen.BASE_IMAGE_PATH);
+            return;
+        }
+
+        Mat[] images = new Mat[imagePaths.size()];
+        for (int i = 0; i < images.length; i++)
+        {
+            images[i] = imread(imagePaths.get(i).toString(), IMREAD_GRAYSCALE);
+        }
+        System.out.printf("%d images, %dx%d%n", images.length, images[0].cols(), images[0].rows());
+
+        for (String backend : new String[]{"haar", "dnn"})
+        {
+            try (FaceDetector detector = FaceDetector.create(backend))
+            {
+                RectVector faces = new RectVector();
+                for (int round = 0; round < rounds; round++)
+                {
+                    int found = 0;
+                    int extra = 0;
+                    long nanos = 0;
+                    for (Mat image : images)
+                    {
+                        if (image.empty())
+                        {
+                            continue;
+                        }
+                        long start = System.nanoTime();
+                        detector.detect(image, faces);
+                        nanos += System.nanoTime() - start;
+                        if (faces.size() > 0)
+                        {
+                            found++;
+                            extra += (int) faces.size() - 1;
+                        }
+                    }
+                    System.out.printf("%s round %d: %.2f ms/image, recall %.3f (%d/%d), %d extra detections%n",
+                            detector.getCacheKey(), round + 1, nanos / 1e6 / images.length,
+                            found / (double) images.length, found, images.length, extra);
+                }
+            }
+        }
+
+        if (args.length > 1)
+        {
+            compareTracking(args[1]);
+        }
+    }
+
+    private static void compareTracking(String video) throws FrameGrabber.Exception
+    {
+        OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+        try (FrameGrabber grabber = new OpenCVFrameGrabber(video);
+             FaceDetector detector = FaceDetector.create();
+             TrackingFaceDetector tracker = TrackingFaceDetector.create();
+             Mat gray = new Mat())
+        {
+            grabber.start();
+            RectVector detected = new RectVector();
+            RectVector tracked = new RectVector();
+            long detectorNanos = 0;
+            long trackerNanos = 0;
+            int frames = 0;
+            int boxes = 0;
+            double iouSum = 0;
+            double worstIou = 1;
+            Frame frame;
+            while ((frame = grabber.grab()) != null)
+            {
+                Mat mat = converter.convert(frame);
+                if (mat == null)
+                {
+                    continue;
+                }
+                cvtColor(mat, gray, COLOR_BGR2GRAY);
+
+                long start = System.nanoTime();
+                detector.detect(gray, detected);
+                detectorNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                tracker.detect(gray, tracked);
+                trackerNanos += System.nanoTime() - start;
+                frames++;
+
+                for (long i = 0; i < tracked.size(); i++)
+                {
+                    double best = 0;
+                    for (long j = 0; j < detected.size(); j++)
+                    {
+                        best = Math.max(best, intersectionOverUnion(tracked.get(i), detected.get(j)));
+                    }
+                    iouSum += best;
+                    worstIou = Math.min(worstIou, best);
+                    boxes++;
+                }
+            }
+            grabber.stop();
+            System.out.printf("Video %s: %d frames, full detection %.2f ms/frame, tracking %.2f ms/frame "
+                            + "(%d detections, %d tracked frames), mean IoU %.3f, worst IoU %.3f%n",
+                    video, frames, detectorNanos / 1e6 / Math.max(1, frames), trackerNanos / 1e6 / Math.max(1, frames),
+                    tracker.getFullDetections(), tracker.getTrackedFrames(),
+                    boxes == 0 ? 0 : iouSum / boxes, boxes == 0 ? 0 : worstIou);
+        }
+    }
+
+    private static double intersectionOverUnion(Rect a, Rect b)
+    {
+        int left = Math.max(a.x(), b.x());
+        int top = Math.max(a.y(), b.y());
+        int right = Math.min(a.x() + a.width(), b.x() + b.width());
+        int bottom = Math.min(a.y() + a.height(), b.y() + b.height());
+        double intersection = Math.max(0, right - left) * (double) Math.max(0, bottom - top);
+        double union = a.area() + b.area() - intersection;
+        return union <= 0 ? 0 : intersection / union;
+    }
+}
\ No newline at end of file
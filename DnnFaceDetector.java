@@ -0,0 +1,98 @@
+package io.itpl.facerecognition;
+
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.RectVector;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.bytedeco.opencv.opencv_dnn.Net;
+import java.io.File;
+import static org.bytedeco.opencv.global.opencv_core.CV_32F;
+import static org.bytedeco.opencv.global.opencv_dnn.*;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_GRAY2BGR;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvtColor;
+
+// OpenCV DNN face detector running the res10 300x300 SSD (Caffe) on the CPU.
+// The network is fed a fixed 300x300 blob, so its cost does not grow with the camera resolution
+// the way the cascade's image pyramid does. Grayscale input is replicated to three channels.
+public class DnnFaceDetector implements FaceDetector
+{
+    private static final int INPUT_SIZE = 300;
+    private static final Scalar MEAN = new Scalar(104.0, 177.0, 123.0, 0.0);
+
+    private final Net net;
+    private final String modelName;
+    private final float confidenceThreshold;
+    private final int minFaceSize;
+    private final Size inputSize = new Size(INPUT_SIZE, INPUT_SIZE);
+    private final Mat colorImage = new Mat();
+
+    public DnnFaceDetector(String configPath, String modelPath, float confidenceThreshold, int minFaceSize)
+    {
+        this.net = readNetFromCaffe(configPath, modelPath);
+        if (net.empty())
+        {
+            throw new IllegalStateException("Could not load DNN face detector from " + modelPath);
+        }
+        net.setPreferableBackend(DNN_BACKEND_OPENCV);
+        net.setPreferableTarget(DNN_TARGET_CPU);
+        this.modelName = new File(modelPath).getName();
+        this.confidenceThreshold = confidenceThreshold;
+        this.minFaceSize = minFaceSize;
+        System.out.println("DNN face detector loaded: " + modelPath);
+    }
+
+    @Override
+    public void detect(Mat image, RectVector faces)
+    {
+        faces.clear();
+        Mat input = image;
+        if (image.channels() == 1)
+        {
+            cvtColor(image, colorImage, COLOR_GRAY2BGR);
+            input = colorImage;
+        }
+
+        try (Mat blob = blobFromImage(input, 1.0, inputSize, MEAN, false, false, CV_32F))
+        {
+            net.setInput(blob);
+            try (Mat output = net.forward();
+                 Mat detections = new Mat(output.size(2), output.size(3), CV_32F, output.ptr(0, 0));
+                 FloatIndexer indexer = detections.createIndexer())
+            {
+                // One row per candidate: image id, class id, confidence, then the box in [0, 1].
+                int cols = image.cols();
+                int rows = image.rows();
+                for (int i = 0; i < detections.rows(); i++)
+                {
+                    if (indexer.get(i, 2) < confidenceThreshold)
+                    {
+                        continue;
+                    }
+                    int left = Math.max(0, Math.round(indexer.get(i, 3) * cols));
+                    int top = Math.max(0, Math.round(indexer.get(i, 4) * rows));
+                    int right = Math.min(cols, Math.round(indexer.get(i, 5) * cols));
+                    int bottom = Math.min(rows, Math.round(indexer.get(i, 6) * rows));
+                    if (right - left >= minFaceSize && bottom - top >= minFaceSize)
+                    {
+                        faces.push_back(new Rect(left, top, right - left, bottom - top));
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getCacheKey()
+    {
+        return "dnn-" + modelName + "|" + confidenceThreshold + "|" + minFaceSize;
+    }
+
+    @Override
+    public void close()
+    {
+        net.close();
+        colorImage.close();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,181 @@
+package io.itpl.facerecognition;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC1;
+
+// Content-addressed store for the grayscale face crops extracted during training.
+// An entry is keyed by the SHA-256 of the image bytes plus the detector parameters, so a
+// changed image or a changed detector configuration always misses. An empty entry records
+// that no face was found in the image.
+public class FaceCropCache
+{
+    private static final String CACHE_SUFFIX = ".crop";
+
+    private final Path cacheDir;
+    private final String detectorParameters;
+    private final int cropSize;
+    private final Set<String> usedKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public FaceCropCache(String cacheDir, String detectorParameters, int cropSize)
+    {
+        this.cacheDir = Paths.get(cacheDir);
+        this.detectorParameters = detectorParameters;
+        this.cropSize = cropSize;
+        try
+        {
+            Files.createDirectories(this.cacheDir);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not create face crop cache directory: " + e.getMessage());
+        }
+    }
+
+    public String keyFor(String imagePath) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        digest.update(detectorParameters.getBytes(StandardCharsets.UTF_8));
+        try (InputStream in = Files.newInputStream(Paths.get(imagePath)))
+        {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, bytesRead);
+            }
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+        {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    // Returns null when the key is not cached, an empty Mat when the image is known to hold no face.
+    public Mat get(String key)
+    {
+        usedKeys.add(key);
+        Path entry = cacheDir.resolve(key + CACHE_SUFFIX);
+        if (!Files.exists(entry))
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+        try
+        {
+            byte[] pixels = Files.readAllBytes(entry);
+            if (pixels.length == 0)
+            {
+                hits.incrementAndGet();
+                return new Mat();
+            }
+            if (pixels.length != cropSize * cropSize)
+            {
+                misses.incrementAndGet();
+                return null;
+            }
+            Mat crop = new Mat(cropSize, cropSize, CV_8UC1);
+            crop.data().put(pixels);
+            hits.incrementAndGet();
+            return crop;
+        }
+        catch (IOException e)
+        {
+            System.err.println("Error reading cached face crop " + entry + ": " + e.getMessage());
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, Mat crop)
+    {
+        byte[] pixels = new byte[0];
+        if (crop != null && !crop.empty())
+        {
+            pixels = new byte[cropSize * cropSize];
+            crop.data().get(pixels);
+        }
+        Path entry = cacheDir.resolve(key + CACHE_SUFFIX);
+        try
+        {
+            Path tempFile = Files.createTempFile(cacheDir, key, ".tmp");
+            Files.write(tempFile, pixels);
+            Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Error writing cached face crop " + entry + ": " + e.getMessage());
+        }
+    }
+
+    // Drops entries that were not looked up since the last prune, e.g. crops of deleted images.
+    public void pruneUnused()
+    {
+        try (Stream<Path> entries = Files.list(cacheDir))
+        {
+            entries.filter(p -> p.getFileName().toString().endsWith(CACHE_SUFFIX))
+                    .filter(p -> !usedKeys.contains(stripSuffix(p.getFileName().toString())))
+                    .forEach(p -> {
+                        try
+                        {
+                            Files.deleteIfExists(p);
+                        }
+                        catch (IOException e)
+                        {
+                            System.err.println("Could not delete stale face crop " + p + ": " + e.getMessage());
+                        }
+                    });
+        }
+        catch (IOException e)
+        {
+            System.err.println("Error pruning face crop cache: " + e.getMessage());
+        }
+        usedKeys.clear();
+    }
+
+    public int getHits()
+    {
+        return hits.get();
+    }
+
+    public int getMisses()
+    {
+        return misses.get();
+    }
+
+    public void resetStatistics()
+    {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private static String stripSuffix(String fileName)
+    {
+        return fileName.substring(0, fileName.length() - CACHE_SUFFIX.length());
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,56 @@
+package io.itpl.facerecognition;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.RectVector;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Finds face rectangles in an 8-bit grayscale image.
+// Training and the attendance screen both obtain their detector from create(), so the crops the
+// model was trained on and the crops it is asked to recognize come from the same backend.
+// Instances are not thread-safe; give every thread its own.
+//
+// Configuration (system properties):
+//   face.detector             haar (default) or dnn
+//   face.detector.dnn.config  Caffe prototxt of the res10 SSD face model
+//   face.detector.dnn.model   matching .caffemodel weights
+//   face.detector.confidence  minimum SSD score, default 0.5
+public interface FaceDetector extends AutoCloseable
+{
+    int MIN_FACE_SIZE = 30;
+
+    // Replaces the contents of faces with the detections in image.
+    void detect(Mat image, RectVector faces);
+
+    // Identifies the backend and its parameters; part of the face crop cache key.
+    String getCacheKey();
+
+    @Override
+    void close();
+
+    static FaceDetector create()
+    {
+        return create(System.getProperty("face.detector", "haar"));
+    }
+
+    static FaceDetector create(String backend)
+    {
+        if ("dnn".equalsIgnoreCase(backend))
+        {
+            String config = System.getProperty("face.detector.dnn.config", "models/deploy.prototxt");
+            String model = System.getProperty("face.detector.dnn.model", "models/res10_300x300_ssd_iter_140000.caffemodel");
+            float confidence = Float.parseFloat(System.getProperty("face.detector.confidence", "0.5"));
+            if (Files.isRegularFile(Paths.get(config)) && Files.isRegularFile(Paths.get(model)))
+            {
+                return new DnnFaceDetector(config, model, confidence, MIN_FACE_SIZE);
+            }
+            System.err.println("DNN face detector model not found (" + config + ", " + model
+                    + "), falling back to the Haar cascade.");
+        }
+        else if (!"haar".equalsIgnoreCase(backend))
+        {
+            System.err.println("Unknown face detector '" + backend + "', using the Haar cascade.");
+        }
+        return HaarFaceDetector.load(MIN_FACE_SIZE);
+    }
+}
\ No newline at end of file
@@ -1,187 +1,286 @@
 package io.itpl.facerecognition;
 
-import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.FloatPointer;
 import org.bytedeco.javacpp.IntPointer;
 import org.bytedeco.opencv.opencv_core.*;
 import org.bytedeco.opencv.opencv_face.*;
-import org.bytedeco.opencv.opencv_objdetect.*;
 import static org.bytedeco.opencv.global.opencv_imgcodecs.*;
 import static org.bytedeco.opencv.global.opencv_imgproc.*;
 import java.io.*;
-import java.net.URISyntaxException;
-import java.net.URL;
 import java.nio.file.*;
 import java.util.*;
+// opencv_core also declares Arrays and Queue classes; the single-type imports win over both wildcards.
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import io.itpl.ui.RegisterUserScreen;
 
 public class FaceRecognitionTrainer
 {
     private LBPHFaceRecognizer faceRecognizer;
-    private CascadeClassifier faceDetector;
+    private FaceDetector faceDetector;
     private Map<Integer, String> labelMap;
-    private static final String MODEL_FILE = "trained_model.yml";
+    private final AtomicReference<ModelGeneration> model = new AtomicReference<>();
+    private ScheduledExecutorService modelWatcher;
+    // Guards roster and the swap in publish, so a roster change and a new generation cannot
+    // interleave and leave the published generation resolved against the old roster.
+    private final Object rosterLock = new Object();
+    private Set<String> roster;
+    private static final String LEGACY_MODEL_FILE = "trained_model.yml";
+    // Every saved model gets its own gallery and index files, trained_model.<generation>.lbph and
+    // .vpt; the pointer file names the published one. Files are never replaced while mapped.
+    // A registration adds a delta gallery instead, and the pointer then reads base+delta+...;
+    // the index file belongs to the base.
+    private static final String MODEL_FILE_PREFIX = "trained_model.";
+    private static final String MODEL_POINTER_FILE = "trained_model.current";
+    private static final String DELTA_SEPARATOR = "+";
+    private static final String UNVERSIONED_GALLERY_FILE = "trained_model.lbph";
+    private static final String UNVERSIONED_INDEX_FILE = "trained_model.vpt";
+    private static final int INDEX_MIN_SAMPLES = Integer.getInteger("lbph.index.minSamples", 1000);
+    private static final int INDEX_MAX_UNINDEXED = Integer.getInteger("lbph.index.maxUnindexed", 256);
+    private static final double INDEX_EPSILON = Double.parseDouble(System.getProperty("lbph.index.epsilon", "0.1"));
     private static final String LABEL_MAP_FILE = "label_map.txt";
+    private static final String FACE_CACHE_DIR = "face_cache";
+    private static final int TRAINING_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final int RECOGNITION_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService RECOGNITION_POOL = Executors.newFixedThreadPool(RECOGNITION_PARALLELISM, runnable -> {
+        Thread thread = new Thread(runnable, "face-recognition");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicLong GENERATION_COUNTER = new AtomicLong();
+    private static final boolean DEBUG_RECOGNITION = Boolean.getBoolean("recognition.debug");
+    private static final RecognitionResult UNKNOWN = new RecognitionResult("Unknown", Double.MAX_VALUE);
+    private static final ThreadLocal<RecognitionScratch> RECOGNITION_SCRATCH = ThreadLocal.withInitial(RecognitionScratch::new);
+    private static final long MODEL_POLL_SECONDS = 2;
+    private static final int FACE_SIZE = 100;
+    private final FaceCropCache faceCropCache;
 
     public FaceRecognitionTrainer()
     {
         faceRecognizer = LBPHFaceRecognizer.create();
         labelMap = new HashMap<>();
-        loadFaceDetector();
+        faceDetector = FaceDetector.create();
+        faceCropCache = new FaceCropCache(FACE_CACHE_DIR, faceDetector.getCacheKey() + "|" + FACE_SIZE, FACE_SIZE);
     }
 
-    private void loadFaceDetector()
+    public void trainModel()
     {
-        String cascadePath = getPathToXml("haarcascade_frontalface_default.xml");
-        if (cascadePath != null)
-        {
-            faceDetector = new CascadeClassifier(cascadePath);
-            if (faceDetector.empty())
-            {
-                System.err.println("Failed to load face detector cascade classifier.");
-                loadClassifierFromStream("haarcascade_frontalface_default.xml");
-            }
-        }
-        else
+        trainModel(true);
+    }
+
+    public void trainModel(boolean parallel)
+    {
+        TrainingSet trainingSet = loadTrainingSet(parallel);
+        if (trainingSet.images.empty())
         {
-            System.err.println("Failed to get path to cascade XML file.");
-            loadClassifierFromStream("haarcascade_frontalface_default.xml");
+            System.err.println("No images found for training. Please check the image directories.");
+            return;
         }
+
+        faceRecognizer.train(trainingSet.images, trainingSet.labels);
+        saveModel();
+        System.out.println("Model trained successfully.");
+        System.out.println("Total images processed: " + trainingSet.imageCount);
+        System.out.println("Total faces detected and used for training: " + trainingSet.images.size());
     }
 
-    private void loadClassifierFromStream(String resourceName)
+    TrainingSet loadTrainingSet(boolean parallel)
     {
-        try (InputStream is = getClass().getResourceAsStream("/" + resourceName))
+        long startTime = System.nanoTime();
+        faceCropCache.resetStatistics();
+        List<TrainingSample> samples = collectTrainingSamples();
+        List<Mat> faces = parallel ? extractFacesParallel(samples) : extractFacesSequential(samples);
+
+        TrainingSet trainingSet = new TrainingSet(samples.size());
+        for (int i = 0; i < samples.size(); i++)
         {
-            if (is == null)
+            Mat face = faces.get(i);
+            if (face != null)
             {
-                System.err.println("Could not find resource: " + resourceName);
-                return;
+                trainingSet.images.push_back(face);
+                trainingSet.labels.push_back(new Mat(new int[]{samples.get(i).label}));
             }
-            File tempFile = File.createTempFile("cascade", ".xml");
-            tempFile.deleteOnExit();
-            try (FileOutputStream os = new FileOutputStream(tempFile))
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        faceCropCache.pruneUnused();
+
+        System.out.printf("Face extraction (%s): %.2f s, %.1f images/sec%n",
+                parallel ? "parallel, " + TRAINING_PARALLELISM + " workers" : "sequential",
+                seconds, samples.size() / Math.max(seconds, 1e-9));
+        System.out.println("Face crop cache: " + faceCropCache.getHits() + " hits, "
+                + faceCropCache.getMisses() + " misses");
+        return trainingSet;
+    }
+
+    // Users are sorted by enrollment number so labels do not depend on directory listing order.
+    private List<TrainingSample> collectTrainingSamples()
+    {
+        List<TrainingSample> samples = new ArrayList<>();
+        labelMap.clear();
+
+        File baseDir = new File(RegisterUserScreen.BASE_IMAGE_PATH);
+        File[] userDirs = baseDir.listFiles(File::isDirectory);
+        if (userDirs == null)
+        {
+            return samples;
+        }
+        Arrays.sort(userDirs, Comparator.comparing(File::getName));
+
+        int label = 0;
+        for (File userDir : userDirs)
+        {
+            String enrollmentNumber = userDir.getName();
+            List<String> imagePaths = RegisterUserScreen.getImagePathsForUser(enrollmentNumber);
+            Collections.sort(imagePaths);
+
+            System.out.println("Processing user: " + enrollmentNumber);
+            System.out.println("Number of images found: " + imagePaths.size());
+
+            for (String imagePath : imagePaths)
             {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = is.read(buffer)) != -1)
-                {
-                    os.write(buffer, 0, bytesRead);
-                }
+                samples.add(new TrainingSample(imagePath, label));
             }
-            faceDetector = new CascadeClassifier(tempFile.getAbsolutePath());
-            System.out.println("Classifier loaded from stream. Empty: " + faceDetector.empty());
+            labelMap.put(label, enrollmentNumber);
+            label++;
         }
-        catch (IOException e)
+        return samples;
+    }
+
+    private List<Mat> extractFacesSequential(List<TrainingSample> samples)
+    {
+        List<Mat> faces = new ArrayList<>(samples.size());
+        for (TrainingSample sample : samples)
         {
-            System.err.println("Error loading classifier from stream: " + e.getMessage());
-            e.printStackTrace();
+            faces.add(extractFaceCached(faceDetector, sample.imagePath));
         }
+        return faces;
     }
 
-    public String getPathToXml(String xmlFilename)
+    // Face detectors are not thread-safe, so every worker thread gets its own instance.
+    // Detectors are not thread-safe, so every worker thread gets its own instance; all of them are
+    // closed once the pool has terminated.
+    private List<Mat> extractFacesParallel(List<TrainingSample> samples)
     {
-        System.out.println("Attempting to load XML file: " + xmlFilename);
-
-        File file = new File("src/main/resources/" + xmlFilename);
-        if (file.exists())
+        Queue<FaceDetector> createdDetectors = new ConcurrentLinkedQueue<>();
+        ThreadLocal<FaceDetector> detectors = ThreadLocal.withInitial(() -> {
+            FaceDetector detector = FaceDetector.create();
+            createdDetectors.add(detector);
+            return detector;
+        });
+        ForkJoinPool pool = new ForkJoinPool(TRAINING_PARALLELISM);
+        try
+        {
+            return pool.submit(() -> samples.parallelStream()
+                    .map(sample -> extractFaceCached(detectors.get(), sample.imagePath))
+                    .collect(Collectors.toList())).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Training interrupted", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Face extraction failed", e.getCause());
+        }
+        finally
         {
-            System.out.println("Found XML file as a file: " + file.getAbsolutePath());
-            return file.getAbsolutePath();
+            pool.shutdown();
+            awaitTermination(pool);
+            for (FaceDetector detector : createdDetectors)
+            {
+                detector.close();
+            }
         }
+    }
 
-        URL resource = getClass().getResource("/" + xmlFilename);
-        if (resource != null)
+    // A worker may still be inside a detector after an interrupted get(), so the wait is not
+    // abandoned on interrupt; the flag is restored once the pool is idle.
+    private static void awaitTermination(ForkJoinPool pool)
+    {
+        boolean interrupted = false;
+        while (true)
         {
-            System.out.println("Found XML file as a resource: " + resource.getPath());
             try
             {
-                File resourceFile = Paths.get(resource.toURI()).toFile();
-                System.out.println("Resource file path: " + resourceFile.getAbsolutePath());
-                return resourceFile.getAbsolutePath();
+                if (pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS))
+                {
+                    break;
+                }
             }
-            catch (URISyntaxException e)
+            catch (InterruptedException e)
             {
-                System.err.println("Error converting resource URL to file: " + e.getMessage());
+                interrupted = true;
             }
         }
-
-        file = new File(xmlFilename);
-        if (file.exists())
+        if (interrupted)
         {
-            System.out.println("Found XML file in current directory: " + file.getAbsolutePath());
-            return file.getAbsolutePath();
+            Thread.currentThread().interrupt();
         }
-
-        System.err.println("Failed to find XML file: " + xmlFilename);
-        return null;
     }
 
-    public void trainModel()
+    // Also used by BulkEnrollmentImporter to fill the crop cache before a single training run.
+    Mat extractFaceCached(FaceDetector detector, String imagePath)
     {
-        MatVector images = new MatVector();
-        Mat labels = new Mat();
+        String key;
+        try
+        {
+            key = faceCropCache.keyFor(imagePath);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not hash image " + imagePath + ": " + e.getMessage());
+            return extractFace(detector, imagePath);
+        }
 
-        File baseDir = new File(RegisterUserScreen.BASE_IMAGE_PATH);
-        File[] userDirs = baseDir.listFiles(File::isDirectory);
+        Mat cached = faceCropCache.get(key);
+        if (cached != null)
+        {
+            return cached.empty() ? null : cached;
+        }
+        Mat face = extractFace(detector, imagePath);
+        faceCropCache.put(key, face);
+        return face;
+    }
 
-        int label = 0;
-        int totalImages = 0;
-        int totalFaces = 0;
-        if (userDirs != null)
+    private Mat extractFace(FaceDetector detector, String imagePath)
+    {
+        Mat image = imread(imagePath, IMREAD_GRAYSCALE);
+        if (image.empty())
         {
-            for (File userDir : userDirs)
-            {
-                String enrollmentNumber = userDir.getName();
-                List<String> imagePaths = RegisterUserScreen.getImagePathsForUser(enrollmentNumber);
-
-                System.out.println("Processing user: " + enrollmentNumber);
-                System.out.println("Number of images found: " + imagePaths.size());
-
-                int userFaces = 0;
-                for (String imagePath : imagePaths) {
-                    Mat image = imread(imagePath, IMREAD_GRAYSCALE);
-                    RectVector faceDetections = new RectVector();
-                    faceDetector.detectMultiScale(image, faceDetections,
-                            1.1, 3, 0,
-                            new Size(30, 30), new Size(image.cols(), image.rows()));
-
-                    System.out.println("Image: " + imagePath);
-                    System.out.println("Faces detected: " + faceDetections.size());
-
-                    if (faceDetections.size() > 0)
-                    {
-                        Rect largestFace = getLargestFace(faceDetections);
-                        Mat face = new Mat(image, largestFace);
-                        Mat resizedFace = new Mat();
-                        resize(face, resizedFace, new Size(100, 100));
-                        images.push_back(resizedFace);
-                        labels.push_back(new Mat(new int[]{label}));
-                        userFaces++;
-                        totalFaces++;
-                    }
-                    else
-                    {
-                        System.out.println("No face detected in image: " + imagePath);
-                    }
-                    totalImages++;
-                }
-                System.out.println("Total faces detected for user " + enrollmentNumber + ": " + userFaces);
-                labelMap.put(label, enrollmentNumber);
-                label++;
-            }
+            System.err.println("Could not read image: " + imagePath);
+            return null;
         }
+        RectVector faceDetections = new RectVector();
+        detector.detect(image, faceDetections);
 
-        if (images.empty())
+        if (faceDetections.size() == 0)
         {
-            System.err.println("No images found for training. Please check the image directories.");
-            return;
+            System.out.println("No face detected in image: " + imagePath);
+            image.release();
+            return null;
         }
 
-        faceRecognizer.train(images, labels);
-        saveModel();
-        System.out.println("Model trained successfully.");
-        System.out.println("Total images processed: " + totalImages);
-        System.out.println("Total faces detected and used for training: " + totalFaces);
+        Rect largestFace = getLargestFace(faceDetections);
+        Mat face = new Mat(image, largestFace);
+        Mat resizedFace = new Mat();
+        resize(face, resizedFace, new Size(FACE_SIZE, FACE_SIZE));
+        face.release();
+        image.release();
+        return resizedFace;
     }
 
     private Rect getLargestFace(RectVector faceDetections)
@@ -205,36 +304,386 @@ public class FaceRecognitionTrainer
         MatVector images = new MatVector();
         Mat labels = new Mat();
 
-        int newLabel = labelMap.size();
+        int newLabel = labelMap.isEmpty() ? 0 : Collections.max(labelMap.keySet()) + 1;
         List<String> imagePaths = RegisterUserScreen.getImagePathsForUser(newUserEnrollmentNumber);
 
         for (String imagePath : imagePaths) {
-            Mat image = imread(imagePath, IMREAD_GRAYSCALE);
-            RectVector faceDetections = new RectVector();
-            faceDetector.detectMultiScale(image, faceDetections);
-
-            for (long i = 0; i < faceDetections.size(); i++)
+            Mat face = extractFaceCached(faceDetector, imagePath);
+            if (face != null)
             {
-                Rect rect = faceDetections.get(i);
-                Mat face = new Mat(image, rect);
-                Mat resizedFace = new Mat();
-                resize(face, resizedFace, new Size(100, 100));
-                images.push_back(resizedFace);
+                images.push_back(face);
                 labels.push_back(new Mat(new int[]{newLabel}));
             }
         }
 
-        faceRecognizer.update(images, labels);
-        labelMap.put(newLabel, newUserEnrollmentNumber);
-        saveModel();
+        if (images.empty())
+        {
+            System.err.println("No faces found for user: " + newUserEnrollmentNumber);
+            return;
+        }
+
+        // The loaded gallery holds no native model, so the new histograms are computed by a
+        // throwaway recognizer with the gallery's parameters and written as a delta after the
+        // existing rows. Once the delta rows outgrow INDEX_MAX_UNINDEXED the VP-tree has to be
+        // rebuilt anyway, and the gallery is rewritten as a single base file at the same time.
+        ModelGeneration base = acquireModel();
+        try
+        {
+            LbphGallery baseGallery = base == null ? null : base.getGallery();
+            LBPHFaceRecognizer extractor = baseGallery == null
+                    ? LBPHFaceRecognizer.create()
+                    : LBPHFaceRecognizer.create(baseGallery.getRadius(), baseGallery.getNeighbors(),
+                            baseGallery.getGridX(), baseGallery.getGridY(), Double.MAX_VALUE);
+            extractor.train(images, labels);
+            labelMap.put(newLabel, newUserEnrollmentNumber);
+            if (baseGallery != null
+                    && baseGallery.size() - baseGallery.getBaseSize() + images.size() <= INDEX_MAX_UNINDEXED)
+            {
+                saveDelta(extractor, base);
+            }
+            else
+            {
+                saveModel(extractor, baseGallery);
+            }
+        }
+        finally
+        {
+            if (base != null)
+            {
+                base.release();
+            }
+        }
         System.out.println("Model updated successfully for user: " + newUserEnrollmentNumber);
     }
 
     private void saveModel()
     {
-        faceRecognizer.save(MODEL_FILE);
-        saveLabelMap();
-        System.out.println("Model and label map saved successfully.");
+        saveModel(faceRecognizer, null);
+    }
+
+    // Writes the gallery and its index under a new generation name, then points the pointer file at
+    // them. Other processes running a model watcher pick them up on their next poll.
+    private void saveModel(LBPHFaceRecognizer recognizer, LbphGallery base)
+    {
+        try
+        {
+            String fileGeneration = newFileGeneration();
+            writeGallery(galleryPath(fileGeneration), recognizer, base, labelMap);
+            saveLabelMap();
+            LbphGallery gallery = LbphGallery.open(galleryPath(fileGeneration));
+            VpTreeIndex index = buildIndex(gallery, fileGeneration);
+            setCurrentFileGeneration(fileGeneration);
+            publish(new ModelGeneration(GENERATION_COUNTER.incrementAndGet(), gallery, index, fileGeneration));
+            System.out.println("Model and label map saved successfully.");
+        }
+        catch (IOException e)
+        {
+            System.err.println("Error saving model: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Writes only the recognizer's rows to a delta file. The base generation's files stay as they
+    // are and its index is reused; the delta rows are scanned after the tree search.
+    private void saveDelta(LBPHFaceRecognizer recognizer, ModelGeneration base)
+    {
+        try
+        {
+            String delta = newFileGeneration();
+            writeGallery(galleryPath(delta), recognizer, null, labelMap);
+            saveLabelMap();
+            String fileGeneration = base.getFileGeneration() + DELTA_SEPARATOR + delta;
+            LbphGallery gallery = LbphGallery.open(galleryPaths(fileGeneration));
+            setCurrentFileGeneration(fileGeneration);
+            publish(new ModelGeneration(GENERATION_COUNTER.incrementAndGet(), gallery, base.getIndex(), fileGeneration));
+            System.out.println("Model delta and label map saved successfully.");
+        }
+        catch (IOException e)
+        {
+            System.err.println("Error saving model: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    static void writeGallery(Path target, LBPHFaceRecognizer recognizer, LbphGallery base,
+                             Map<Integer, String> labelMap) throws IOException
+    {
+        MatVector histograms = recognizer.getHistograms();
+        Mat labels = recognizer.getLabels();
+        int histogramLength = (int) histograms.get(0).total();
+        IntPointer labelData = new IntPointer(labels.data());
+
+        try (LbphGallery.Writer writer = new LbphGallery.Writer(target,
+                recognizer.getRadius(), recognizer.getNeighbors(), recognizer.getGridX(), recognizer.getGridY(),
+                histogramLength, labelMap))
+        {
+            if (base != null)
+            {
+                float[] row = new float[histogramLength];
+                for (int r = 0; r < base.size(); r++)
+                {
+                    base.copyHistogram(r, row);
+                    writer.add(base.getLabel(r), row);
+                }
+            }
+            for (long i = 0; i < histograms.size(); i++)
+            {
+                FloatPointer histogram = new FloatPointer(histograms.get(i).data()).capacity(histogramLength);
+                writer.add(labelData.get(i), histogram.asBuffer());
+            }
+            writer.commit();
+        }
+    }
+
+    // Restricts recognition to the given enrollment numbers; null or empty searches the whole gallery.
+    public void setRoster(Collection<String> enrollmentNumbers)
+    {
+        synchronized (rosterLock)
+        {
+            roster = enrollmentNumbers == null || enrollmentNumbers.isEmpty() ? null : new HashSet<>(enrollmentNumbers);
+            ModelGeneration current = acquireModel();
+            if (current != null)
+            {
+                current.resolveRoster(roster);
+                current.release();
+            }
+        }
+    }
+
+    private ModelGeneration acquireModel()
+    {
+        while (true)
+        {
+            ModelGeneration current = model.get();
+            if (current == null || current.acquire())
+            {
+                return current;
+            }
+        }
+    }
+
+    // Swaps the generation used by subsequent frames; frames still holding the old one finish on it.
+    private void publish(ModelGeneration next)
+    {
+        ModelGeneration previous;
+        synchronized (rosterLock)
+        {
+            next.resolveRoster(roster);
+            previous = model.getAndSet(next);
+        }
+        System.out.printf("Published model generation %d (%d samples%s).%n", next.getNumber(),
+                next.getGallery().size(), next.getIndex() != null ? ", indexed" : "");
+        if (previous != null)
+        {
+            previous.release();
+        }
+    }
+
+    // Polls the model files and publishes a new generation when another process has retrained.
+    public synchronized void startModelWatcher()
+    {
+        if (modelWatcher != null)
+        {
+            return;
+        }
+        modelWatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "model-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        modelWatcher.scheduleWithFixedDelay(this::reloadIfChanged, MODEL_POLL_SECONDS, MODEL_POLL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopModelWatcher()
+    {
+        if (modelWatcher != null)
+        {
+            modelWatcher.shutdownNow();
+            modelWatcher = null;
+        }
+    }
+
+    private void reloadIfChanged()
+    {
+        try
+        {
+            String fileGeneration = currentFileGeneration();
+            ModelGeneration current = model.get();
+            if (fileGeneration == null || (current != null && fileGeneration.equals(current.getFileGeneration())))
+            {
+                return;
+            }
+            publish(openGeneration(fileGeneration));
+        }
+        catch (Exception e)
+        {
+            System.err.println("Error reloading model: " + e.getMessage());
+        }
+    }
+
+    private ModelGeneration openGeneration(String fileGeneration) throws IOException
+    {
+        LbphGallery gallery = LbphGallery.open(galleryPaths(fileGeneration));
+        try
+        {
+            VpTreeIndex index = loadIndex(gallery, fileGeneration, false);
+            return new ModelGeneration(GENERATION_COUNTER.incrementAndGet(), gallery, index, fileGeneration);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            gallery.close();
+            throw e;
+        }
+    }
+
+    private static String newFileGeneration()
+    {
+        return String.format("%013x-%08x", System.currentTimeMillis(), ThreadLocalRandom.current().nextInt());
+    }
+
+    private static List<String> fileParts(String fileGeneration)
+    {
+        return Arrays.asList(fileGeneration.split(Pattern.quote(DELTA_SEPARATOR)));
+    }
+
+    // Gallery file of a single part: a base or one delta.
+    private static Path galleryPath(String filePart)
+    {
+        return Paths.get(MODEL_FILE_PREFIX + filePart + ".lbph");
+    }
+
+    private static List<Path> galleryPaths(String fileGeneration)
+    {
+        List<Path> paths = new ArrayList<>();
+        for (String filePart : fileParts(fileGeneration))
+        {
+            paths.add(galleryPath(filePart));
+        }
+        return paths;
+    }
+
+    private static Path indexPath(String fileGeneration)
+    {
+        return Paths.get(MODEL_FILE_PREFIX + fileParts(fileGeneration).get(0) + ".vpt");
+    }
+
+    // The published generation, or null if no model has been saved yet.
+    private static String currentFileGeneration() throws IOException
+    {
+        try
+        {
+            String fileGeneration = Files.readString(Paths.get(MODEL_POINTER_FILE)).trim();
+            return fileGeneration.isEmpty() ? null : fileGeneration;
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+    }
+
+    // Only the small pointer file is replaced, so the move works while readers map older galleries.
+    private static void setCurrentFileGeneration(String fileGeneration) throws IOException
+    {
+        Path pointer = Paths.get(MODEL_POINTER_FILE).toAbsolutePath();
+        Path tempFile = Files.createTempFile(pointer.getParent(), MODEL_POINTER_FILE, ".tmp");
+        Files.writeString(tempFile, fileGeneration);
+        Files.move(tempFile, pointer, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Called by a ModelGeneration once its last reference is released and its gallery unmapped.
+    // Parts still named by the pointer file are kept. Another process may still map the files;
+    // where the OS refuses the delete, that process retries when it releases its own generation.
+    static void deleteIfRetired(String fileGeneration)
+    {
+        try
+        {
+            String current = currentFileGeneration();
+            Set<String> live = current == null ? Collections.emptySet() : new HashSet<>(fileParts(current));
+            for (String filePart : fileParts(fileGeneration))
+            {
+                if (!live.contains(filePart))
+                {
+                    Files.deleteIfExists(indexPath(filePart));
+                    Files.deleteIfExists(galleryPath(filePart));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("Could not delete model generation " + fileGeneration + ": " + e.getMessage());
+        }
+    }
+
+    // Moves a gallery saved before generations were named into the generation layout.
+    private static void adoptUnversionedModel() throws IOException
+    {
+        Path gallery = Paths.get(UNVERSIONED_GALLERY_FILE);
+        if (currentFileGeneration() != null || !Files.exists(gallery))
+        {
+            return;
+        }
+        String fileGeneration = newFileGeneration();
+        Path index = Paths.get(UNVERSIONED_INDEX_FILE);
+        if (Files.exists(index) && Files.getLastModifiedTime(index).compareTo(Files.getLastModifiedTime(gallery)) >= 0)
+        {
+            Files.move(index, indexPath(fileGeneration));
+        }
+        else
+        {
+            Files.deleteIfExists(index);
+        }
+        Files.move(gallery, galleryPath(fileGeneration));
+        setCurrentFileGeneration(fileGeneration);
+    }
+
+    private VpTreeIndex buildIndex(LbphGallery gallery, String fileGeneration) throws IOException
+    {
+        Path indexPath = indexPath(fileGeneration);
+        if (gallery.size() < INDEX_MIN_SAMPLES)
+        {
+            Files.deleteIfExists(indexPath);
+            return null;
+        }
+        VpTreeIndex index = VpTreeIndex.build(new LbphMatcher(gallery));
+        index.save(indexPath);
+        return index;
+    }
+
+    // The index is written before the pointer moves, so a missing index means the gallery is below
+    // INDEX_MIN_SAMPLES or its writer died. Only migrateModel rebuilds it; loadModel and the watcher
+    // fall back to the linear scan.
+    private VpTreeIndex loadIndex(LbphGallery gallery, String fileGeneration, boolean rebuildStaleIndex) throws IOException
+    {
+        Path indexPath = indexPath(fileGeneration);
+        if (gallery.size() < INDEX_MIN_SAMPLES)
+        {
+            return null;
+        }
+        if (!Files.exists(indexPath))
+        {
+            System.out.println("Search index is missing.");
+            return rebuildStaleIndex ? buildIndex(gallery, fileGeneration) : null;
+        }
+        VpTreeIndex loaded = VpTreeIndex.load(indexPath);
+        if (loaded.size() > gallery.size() || gallery.size() - loaded.size() > INDEX_MAX_UNINDEXED)
+        {
+            System.out.println("Search index does not match the model.");
+            return rebuildStaleIndex ? buildIndex(gallery, fileGeneration) : null;
+        }
+        return loaded;
+    }
+
+    // One-off migration of an OpenCV YAML model plus label_map.txt into the binary gallery format.
+    public void convertLegacyModel() throws IOException
+    {
+        long startTime = System.nanoTime();
+        faceRecognizer.read(LEGACY_MODEL_FILE);
+        loadLabelMap();
+        String fileGeneration = newFileGeneration();
+        writeGallery(galleryPath(fileGeneration), faceRecognizer, null, labelMap);
+        setCurrentFileGeneration(fileGeneration);
+        System.out.printf("Converted %s to %s in %.1f s%n", LEGACY_MODEL_FILE, galleryPath(fileGeneration),
+                (System.nanoTime() - startTime) / 1e9);
     }
 
     private void saveLabelMap()
@@ -253,19 +702,58 @@ public class FaceRecognitionTrainer
         }
     }
 
-    public void loadModel()
+    // Trainer side only: moves models saved by older versions into the generation layout and
+    // writes a missing or stale index for the published generation. Kiosks never do this on load,
+    // since it can take seconds and would race with another process publishing.
+    public void migrateModel()
     {
-        File modelFile = new File(MODEL_FILE);
-        if (!modelFile.exists())
+        try
         {
-            System.out.println("Model file not found. A new model will be created when training.");
-            return;
+            adoptUnversionedModel();
+            if (currentFileGeneration() == null && Files.exists(Paths.get(LEGACY_MODEL_FILE)))
+            {
+                convertLegacyModel();
+            }
+            String fileGeneration = currentFileGeneration();
+            if (fileGeneration != null)
+            {
+                try (LbphGallery gallery = LbphGallery.open(galleryPaths(fileGeneration)))
+                {
+                    loadIndex(gallery, fileGeneration, true);
+                }
+            }
         }
+        catch (IOException e)
+        {
+            System.err.println("Error migrating model: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Opens the published generation as it is; a model in an older format waits for migrateModel.
+    public void loadModel()
+    {
         try
         {
-            faceRecognizer.read(MODEL_FILE);
-            System.out.println("Model loaded successfully.");
-            loadLabelMap();
+            String fileGeneration = currentFileGeneration();
+            if (fileGeneration == null)
+            {
+                if (Files.exists(Paths.get(UNVERSIONED_GALLERY_FILE)) || Files.exists(Paths.get(LEGACY_MODEL_FILE)))
+                {
+                    System.out.println("Model is in an older format. Train the model or register a user to convert it.");
+                }
+                else
+                {
+                    System.out.println("Model file not found. A new model will be created when training.");
+                }
+                return;
+            }
+            long startTime = System.nanoTime();
+            ModelGeneration generation = openGeneration(fileGeneration);
+            labelMap = new HashMap<>(generation.getLabelMap());
+            publish(generation);
+            System.out.printf("Model loaded successfully in %.1f ms (%d samples).%n",
+                    (System.nanoTime() - startTime) / 1e6, generation.getGallery().size());
         }
         catch (Exception e)
         {
@@ -305,52 +793,176 @@ public class FaceRecognitionTrainer
         }
     }
 
+    public boolean isModelLoaded()
+    {
+        return model.get() != null;
+    }
+
+    // Recognizes a batch of face crops on the shared worker pool; results are in input order.
+    // The gallery is read-only while recognizing, so workers share it without locking.
+    public List<RecognitionResult> recognizeFaces(List<Mat> faces)
+    {
+        if (faces.size() <= 1)
+        {
+            List<RecognitionResult> results = new ArrayList<>(faces.size());
+            for (Mat face : faces)
+            {
+                results.add(recognizeFace(face));
+            }
+            return results;
+        }
+
+        List<Future<RecognitionResult>> futures = new ArrayList<>(faces.size());
+        for (Mat face : faces)
+        {
+            futures.add(RECOGNITION_POOL.submit(() -> recognizeFace(face)));
+        }
+        List<RecognitionResult> results = new ArrayList<>(faces.size());
+        for (Future<RecognitionResult> future : futures)
+        {
+            try
+            {
+                results.add(future.get());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                results.add(UNKNOWN);
+            }
+            catch (ExecutionException e)
+            {
+                System.err.println("Error during face recognition: " + e.getCause().getMessage());
+                results.add(UNKNOWN);
+            }
+        }
+        return results;
+    }
+
     public RecognitionResult recognizeFace(Mat face)
     {
         if (face.empty())
         {
             System.err.println("Error: Face image is empty");
-            return new RecognitionResult("Unknown", Double.MAX_VALUE);
+            return UNKNOWN;
         }
 
-        Mat grayFace = new Mat();
-        if (face.channels() > 1)
+        ModelGeneration generation = acquireModel();
+        if (generation == null)
         {
-            cvtColor(face, grayFace, COLOR_BGR2GRAY);
-        } else
+            System.err.println("Error: No trained model loaded");
+            return UNKNOWN;
+        }
+        try
         {
-            grayFace = face;
+            return recognizeFace(generation, face, RECOGNITION_SCRATCH.get());
         }
+        finally
+        {
+            generation.release();
+        }
+    }
 
-        Mat resizedFace = new Mat();
-        resize(grayFace, resizedFace, new Size(100, 100));
+    // Steady-state path: all native and array buffers come from the calling thread's scratch.
+    private RecognitionResult recognizeFace(ModelGeneration generation, Mat face, RecognitionScratch scratch)
+    {
+        LbphMatcher matcher = generation.getMatcher();
+        scratch.ensureCapacity(matcher);
 
-        IntPointer label = new IntPointer(1);
-        DoublePointer confidence = new DoublePointer(1);
+        Mat grayFace = face;
+        if (face.channels() > 1)
+        {
+            cvtColor(face, scratch.grayFace, COLOR_BGR2GRAY);
+            grayFace = scratch.grayFace;
+        }
+        resize(grayFace, scratch.resizedFace, scratch.faceSize);
+        matcher.computeHistogram(scratch.resizedFace, scratch.pixels, scratch.codes, scratch.histogram);
 
-        try
+        LbphMatcher.TopK top = scratch.top;
+        int[] rosterRows = generation.getRosterRows();
+        if (rosterRows != null)
         {
-            faceRecognizer.predict(resizedFace, label, confidence);
+            matcher.predict(scratch.histogram, top, rosterRows);
         }
-        catch (Exception e)
+        else if (generation.getIndex() != null)
         {
-            System.err.println("Error during face recognition: " + e.getMessage());
-            e.printStackTrace();
-            return new RecognitionResult("Unknown", Double.MAX_VALUE);
+            generation.getIndex().search(matcher, scratch.histogram, top, INDEX_EPSILON);
+        }
+        else
+        {
+            matcher.predict(scratch.histogram, top);
+        }
+        if (top.size() == 0)
+        {
+            return UNKNOWN;
         }
 
-        int predictedLabel = label.get();
-        double predictionConfidence = confidence.get();
+        int predictedLabel = top.getLabel(0);
+        double predictionConfidence = top.getDistance(0);
+        double runnerUpConfidence = top.size() > 1 ? top.getDistance(1) : Double.MAX_VALUE;
 
-        System.out.println("Predicted Label: " + predictedLabel + ", Confidence: " + predictionConfidence);
+        if (DEBUG_RECOGNITION)
+        {
+            System.out.println("Predicted Label: " + predictedLabel + ", Confidence: " + predictionConfidence
+                    + ", Runner-up: " + runnerUpConfidence);
+        }
 
-        if (labelMap.containsKey(predictedLabel))
+        String enrollmentNumber = generation.getLabelMap().get(predictedLabel);
+        if (enrollmentNumber != null)
         {
-            return new RecognitionResult(labelMap.get(predictedLabel), predictionConfidence);
+            return new RecognitionResult(enrollmentNumber, predictionConfidence, runnerUpConfidence);
         }
         else
         {
-            return new RecognitionResult("Unknown", Double.MAX_VALUE);
+            return UNKNOWN;
+        }
+    }
+
+    // Per-thread buffers for recognizeFace, resized only when a generation changes the histogram shape.
+    private static class RecognitionScratch
+    {
+        final Mat grayFace = new Mat();
+        final Mat resizedFace = new Mat();
+        final Size faceSize = new Size(FACE_SIZE, FACE_SIZE);
+        final byte[] pixels = new byte[FACE_SIZE * FACE_SIZE];
+        final LbphMatcher.TopK top = new LbphMatcher.TopK(2);
+        int[] codes = new int[0];
+        float[] histogram = new float[0];
+
+        void ensureCapacity(LbphMatcher matcher)
+        {
+            int codeCount = matcher.getCodeCount(FACE_SIZE, FACE_SIZE);
+            if (codes.length != codeCount)
+            {
+                codes = new int[codeCount];
+            }
+            if (histogram.length != matcher.getHistogramLength())
+            {
+                histogram = new float[matcher.getHistogramLength()];
+            }
+        }
+    }
+
+    static class TrainingSet
+    {
+        final MatVector images = new MatVector();
+        final Mat labels = new Mat();
+        final int imageCount;
+
+        TrainingSet(int imageCount)
+        {
+            this.imageCount = imageCount;
+        }
+    }
+
+    private static class TrainingSample
+    {
+        final String imagePath;
+        final int label;
+
+        TrainingSample(String imagePath, int label)
+        {
+            this.imagePath = imagePath;
+            this.label = label;
         }
     }
 
@@ -358,11 +970,24 @@ public class FaceRecognitionTrainer
     {
         public final String enrollmentNumber;
         public final double confidence;
+        public final double runnerUpConfidence;
 
         public RecognitionResult(String enrollmentNumber, double confidence)
+        {
+            this(enrollmentNumber, confidence, Double.MAX_VALUE);
+        }
+
+        public RecognitionResult(String enrollmentNumber, double confidence, double runnerUpConfidence)
         {
             this.enrollmentNumber = enrollmentNumber;
             this.confidence = confidence;
+            this.runnerUpConfidence = runnerUpConfidence;
+        }
+
+        // Distance gap to the best competing student; small values mean an ambiguous match.
+        public double getMargin()
+        {
+            return runnerUpConfidence - confidence;
         }
     }
 }
\ No newline at end of file
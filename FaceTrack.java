@@ -0,0 +1,89 @@
+package io.itpl.facerecognition;
+
+// A face followed across frames in classroom mode, with its own vote buffer.
+public class FaceTrack
+{
+    private final int id;
+    private int x;
+    private int y;
+    private int width;
+    private int height;
+    private int missedFrames;
+    private boolean marked;
+    private final VoteBuffer votes = new VoteBuffer();
+
+    public FaceTrack(int id, int x, int y, int width, int height)
+    {
+        this.id = id;
+        update(x, y, width, height);
+    }
+
+    void update(int x, int y, int width, int height)
+    {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.missedFrames = 0;
+    }
+
+    int markMissed()
+    {
+        return ++missedFrames;
+    }
+
+    double intersectionOverUnion(int otherX, int otherY, int otherWidth, int otherHeight)
+    {
+        int left = Math.max(x, otherX);
+        int top = Math.max(y, otherY);
+        int right = Math.min(x + width, otherX + otherWidth);
+        int bottom = Math.min(y + height, otherY + otherHeight);
+        if (right <= left || bottom <= top)
+        {
+            return 0;
+        }
+        double intersection = (double) (right - left) * (bottom - top);
+        double union = (double) width * height + (double) otherWidth * otherHeight - intersection;
+        return intersection / union;
+    }
+
+    public VoteBuffer getVotes()
+    {
+        return votes;
+    }
+
+    public int getId()
+    {
+        return id;
+    }
+
+    public int getX()
+    {
+        return x;
+    }
+
+    public int getY()
+    {
+        return y;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public boolean isMarked()
+    {
+        return marked;
+    }
+
+    public void setMarked(boolean marked)
+    {
+        this.marked = marked;
+    }
+}
\ No newline at end of file
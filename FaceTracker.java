@@ -0,0 +1,67 @@
+package io.itpl.facerecognition;
+
+import org.bytedeco.opencv.opencv_core.Rect;
+import java.util.ArrayList;
+import java.util.List;
+
+// Assigns stable track IDs to face detections by greedy intersection-over-union matching
+// against the boxes of the previous frame.
+public class FaceTracker
+{
+    private static final double MIN_IOU = 0.3;
+    private static final int MAX_MISSED_FRAMES = 10;
+
+    private final List<FaceTrack> tracks = new ArrayList<>();
+    private int nextId = 1;
+
+    // Returns the tracks seen in this frame, in the same order as the detections.
+    public synchronized List<FaceTrack> update(List<Rect> detections)
+    {
+        List<FaceTrack> matched = new ArrayList<>(detections.size());
+        List<FaceTrack> unmatched = new ArrayList<>(tracks);
+        for (Rect detection : detections)
+        {
+            FaceTrack best = null;
+            double bestIou = MIN_IOU;
+            for (FaceTrack track : unmatched)
+            {
+                double iou = track.intersectionOverUnion(detection.x(), detection.y(), detection.width(), detection.height());
+                if (iou >= bestIou)
+                {
+                    bestIou = iou;
+                    best = track;
+                }
+            }
+            if (best == null)
+            {
+                best = new FaceTrack(nextId++, detection.x(), detection.y(), detection.width(), detection.height());
+                tracks.add(best);
+            }
+            else
+            {
+                unmatched.remove(best);
+                best.update(detection.x(), detection.y(), detection.width(), detection.height());
+            }
+            matched.add(best);
+        }
+
+        for (FaceTrack track : unmatched)
+        {
+            if (track.markMissed() > MAX_MISSED_FRAMES)
+            {
+                tracks.remove(track);
+            }
+        }
+        return matched;
+    }
+
+    public synchronized int size()
+    {
+        return tracks.size();
+    }
+
+    public synchronized void clear()
+    {
+        tracks.clear();
+    }
+}
\ No newline at end of file
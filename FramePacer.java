@@ -0,0 +1,123 @@
+package io.itpl.ui;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Decides which captured frames the CameraPipeline analyses and renders.
+//
+// Active: frames go to detection no faster than the target rate, and no faster than the slower
+// of the detect and recognize stages can keep up with (an exponential moving average of their
+// measured times), so frames are skipped at the source instead of being copied and dropped.
+// Idle: after idleAfter without a detected face, detection stops and only a thumbnail
+// frame-difference check runs at the idle rate; the preview is also throttled to that rate.
+// The first frame with motion switches back to active.
+//
+// Configuration (system properties): camera.targetFps (15), camera.idleFps (3),
+// camera.idleAfterSeconds (10), camera.motionFraction (0.01).
+public class FramePacer {
+    private static final double SMOOTHING = 0.2;
+
+    private final long activeIntervalNanos;
+    private final long idleIntervalNanos;
+    private final long idleAfterNanos;
+    private final MotionDetector motionDetector;
+    private volatile double detectNanos;
+    private volatile double recognizeNanos;
+    private volatile long lastFaceNanos = System.nanoTime();
+    private volatile boolean idle;
+    private volatile Consumer<Boolean> idleListener = value -> { };
+
+    // Capture thread only.
+    private long lastAnalyzedNanos;
+    private long lastRenderedNanos;
+    private long lastMotionCheckNanos;
+
+    public FramePacer(double targetFps, double idleFps, long idleAfterSeconds, double motionFraction) {
+        this.activeIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / targetFps);
+        this.idleIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / idleFps);
+        this.idleAfterNanos = TimeUnit.SECONDS.toNanos(idleAfterSeconds);
+        this.motionDetector = new MotionDetector(motionFraction);
+    }
+
+    public static FramePacer fromSystemProperties() {
+        return new FramePacer(
+                Double.parseDouble(System.getProperty("camera.targetFps", "15")),
+                Double.parseDouble(System.getProperty("camera.idleFps", "3")),
+                Long.getLong("camera.idleAfterSeconds", 10),
+                Double.parseDouble(System.getProperty("camera.motionFraction", "0.01")));
+    }
+
+    public void setIdleListener(Consumer<Boolean> idleListener) {
+        this.idleListener = idleListener;
+    }
+
+    // Capture thread.
+    boolean shouldAnalyze(CameraFrame frame, long now) {
+        if (idle) {
+            if (now - lastMotionCheckNanos < idleIntervalNanos) {
+                return false;
+            }
+            lastMotionCheckNanos = now;
+            if (!motionDetector.hasMotion(frame.getImage())) {
+                return false;
+            }
+            lastFaceNanos = now;
+            setIdle(false);
+        } else if (now - lastFaceNanos > idleAfterNanos) {
+            motionDetector.reset();
+            setIdle(true);
+            return false;
+        }
+
+        if (now - lastAnalyzedNanos < getAnalysisIntervalNanos()) {
+            return false;
+        }
+        lastAnalyzedNanos = now;
+        return true;
+    }
+
+    // Capture thread.
+    boolean shouldRender(long now) {
+        if (idle && now - lastRenderedNanos < idleIntervalNanos) {
+            return false;
+        }
+        lastRenderedNanos = now;
+        return true;
+    }
+
+    // Detect thread.
+    void detectFinished(long nanos, int faces, long frameNanos) {
+        detectNanos = detectNanos == 0 ? nanos : detectNanos + SMOOTHING * (nanos - detectNanos);
+        if (faces > 0) {
+            lastFaceNanos = Math.max(lastFaceNanos, frameNanos);
+        }
+    }
+
+    // Recognize thread.
+    void recognizeFinished(long nanos) {
+        recognizeNanos = recognizeNanos == 0 ? nanos : recognizeNanos + SMOOTHING * (nanos - recognizeNanos);
+    }
+
+    // Keeps the pacer from going idle, e.g. while the screen is waiting on the user.
+    public void keepActive() {
+        lastFaceNanos = System.nanoTime();
+    }
+
+    public long getAnalysisIntervalNanos() {
+        return Math.max(activeIntervalNanos, (long) Math.max(detectNanos, recognizeNanos));
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    private void setIdle(boolean value) {
+        idle = value;
+        idleListener.accept(value);
+    }
+
+    @Override
+    public String toString() {
+        return idle ? "idle" : String.format("active, analysis every %.1f ms", getAnalysisIntervalNanos() / 1e6);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,120 @@
+package io.itpl.ui;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Bounded single-producer/single-consumer ring where the newest item always wins.
+// When the ring is full the producer evicts the oldest item instead of blocking, so a slow
+// consumer only ever sees recent frames. Eviction and consumption both advance head with a CAS;
+// a consumer that loses the race simply rereads the new head.
+public class FrameRing<T> {
+    private final String name;
+    private final int capacity;
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Consumer<T> onDrop;
+    private volatile Thread consumer;
+
+    public FrameRing(String name, int capacity, Consumer<T> onDrop) {
+        this.name = name;
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.onDrop = onDrop;
+    }
+
+    // Producer thread only.
+    public void offer(T item) {
+        long t = tail.get();
+        while (true) {
+            long h = head.get();
+            if (t - h < capacity) {
+                break;
+            }
+            T evicted = slots.get((int) (h % capacity));
+            if (head.compareAndSet(h, h + 1)) {
+                dropped.incrementAndGet();
+                onDrop.accept(evicted);
+            }
+        }
+        slots.set((int) (t % capacity), item);
+        tail.set(t + 1);
+        offered.incrementAndGet();
+        Thread waiting = consumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    // Consumer thread only; returns null when the ring is empty.
+    public T poll() {
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                return null;
+            }
+            T item = slots.get((int) (h % capacity));
+            if (head.compareAndSet(h, h + 1)) {
+                return item;
+            }
+        }
+    }
+
+    // Consumer thread only; waits up to timeout for an item and returns null if none arrived.
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        consumer = Thread.currentThread();
+        try {
+            while (true) {
+                T item = poll();
+                if (item != null) {
+                    return item;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            consumer = null;
+        }
+    }
+
+    // Releases everything still queued; call once both sides have stopped.
+    public void clear() {
+        T item;
+        while ((item = poll()) != null) {
+            onDrop.accept(item);
+        }
+    }
+
+    public int depth() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long getOffered() {
+        return offered.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + depth() + "/" + capacity + " queued, " + dropped.get() + " of " + offered.get() + " dropped";
+    }
+}
\ No newline at end of file
@@ -0,0 +1,58 @@
+package io.itpl.ui;
+
+import org.bytedeco.javacpp.Pointer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+// Latency and allocation counters for a per-frame code path, logged every REPORT_INTERVAL frames.
+// Only the thread that calls frameStarted/frameFinished may use an instance.
+public class FrameStats {
+    private static final int REPORT_INTERVAL = 300;
+
+    private final String name;
+    private final long[] latencies = new long[REPORT_INTERVAL];
+    private final long[] sorted = new long[REPORT_INTERVAL];
+    private final com.sun.management.ThreadMXBean threadBean;
+    private int count;
+    private long startNanos;
+    private long startAllocatedBytes;
+    private long allocatedBytes;
+
+    public FrameStats(String name) {
+        this.name = name;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadBean = (com.sun.management.ThreadMXBean) bean;
+        } else {
+            threadBean = null;
+        }
+    }
+
+    public void frameStarted() {
+        startAllocatedBytes = threadBean != null ? threadBean.getCurrentThreadAllocatedBytes() : 0;
+        startNanos = System.nanoTime();
+    }
+
+    public void frameFinished() {
+        latencies[count++] = System.nanoTime() - startNanos;
+        if (threadBean != null) {
+            allocatedBytes += threadBean.getCurrentThreadAllocatedBytes() - startAllocatedBytes;
+        }
+        if (count == REPORT_INTERVAL) {
+            report();
+            count = 0;
+            allocatedBytes = 0;
+        }
+    }
+
+    private void report() {
+        System.arraycopy(latencies, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        System.out.printf("%s: %d frames, p50 %.2f ms, p99 %.2f ms, %s heap/frame, native %d MB (physical %d MB)%n",
+                name, count, sorted[count / 2] / 1e6, sorted[(int) (count * 0.99)] / 1e6,
+                threadBean != null ? (allocatedBytes / count) + " B" : "n/a",
+                Pointer.totalBytes() >> 20, Pointer.physicalBytes() >> 20);
+    }
+}
\ No newline at end of file
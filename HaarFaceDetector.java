@@ -0,0 +1,145 @@
+package io.itpl.facerecognition;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.RectVector;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Paths;
+
+// The original detector: OpenCV's frontal face Haar cascade.
+public class HaarFaceDetector implements FaceDetector
+{
+    public static final String CASCADE_FILE = "haarcascade_frontalface_default.xml";
+    private static final double SCALE_FACTOR = 1.1;
+    private static final int MIN_NEIGHBORS = 3;
+
+    private final CascadeClassifier classifier;
+    private final int minFaceSize;
+    private final Size minSize;
+    private final Size maxSize = new Size();
+
+    public HaarFaceDetector(CascadeClassifier classifier, int minFaceSize)
+    {
+        this.classifier = classifier;
+        this.minFaceSize = minFaceSize;
+        this.minSize = new Size(minFaceSize, minFaceSize);
+    }
+
+    public static HaarFaceDetector load(int minFaceSize)
+    {
+        String cascadePath = getPathToXml(CASCADE_FILE);
+        if (cascadePath != null)
+        {
+            CascadeClassifier classifier = new CascadeClassifier(cascadePath);
+            if (!classifier.empty())
+            {
+                return new HaarFaceDetector(classifier, minFaceSize);
+            }
+            System.err.println("Failed to load face detector cascade classifier.");
+        }
+        else
+        {
+            System.err.println("Failed to get path to cascade XML file.");
+        }
+        CascadeClassifier classifier = loadClassifierFromStream(CASCADE_FILE);
+        if (classifier == null || classifier.empty())
+        {
+            throw new IllegalStateException("Could not load face detector cascade " + CASCADE_FILE);
+        }
+        return new HaarFaceDetector(classifier, minFaceSize);
+    }
+
+    @Override
+    public void detect(Mat image, RectVector faces)
+    {
+        classifier.detectMultiScale(image, faces, SCALE_FACTOR, MIN_NEIGHBORS, 0, minSize, maxSize);
+    }
+
+    @Override
+    public String getCacheKey()
+    {
+        return "haarcascade_frontalface_default|" + SCALE_FACTOR + "|" + MIN_NEIGHBORS + "|" + minFaceSize;
+    }
+
+    @Override
+    public void close()
+    {
+        classifier.close();
+    }
+
+    private static CascadeClassifier loadClassifierFromStream(String resourceName)
+    {
+        try (InputStream is = HaarFaceDetector.class.getResourceAsStream("/" + resourceName))
+        {
+            if (is == null)
+            {
+                System.err.println("Could not find resource: " + resourceName);
+                return null;
+            }
+            File tempFile = File.createTempFile("cascade", ".xml");
+            tempFile.deleteOnExit();
+            try (FileOutputStream os = new FileOutputStream(tempFile))
+            {
+                byte[] buffer = new byte[1024];
+                int bytesRead;
+                while ((bytesRead = is.read(buffer)) != -1)
+                {
+                    os.write(buffer, 0, bytesRead);
+                }
+            }
+            CascadeClassifier detector = new CascadeClassifier(tempFile.getAbsolutePath());
+            System.out.println("Classifier loaded from stream. Empty: " + detector.empty());
+            return detector;
+        }
+        catch (IOException e)
+        {
+            System.err.println("Error loading classifier from stream: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static String getPathToXml(String xmlFilename)
+    {
+        System.out.println("Attempting to load XML file: " + xmlFilename);
+
+        File file = new File("src/main/resources/" + xmlFilename);
+        if (file.exists())
+        {
+            System.out.println("Found XML file as a file: " + file.getAbsolutePath());
+            return file.getAbsolutePath();
+        }
+
+        URL resource = HaarFaceDetector.class.getResource("/" + xmlFilename);
+        if (resource != null)
+        {
+            System.out.println("Found XML file as a resource: " + resource.getPath());
+            try
+            {
+                File resourceFile = Paths.get(resource.toURI()).toFile();
+                System.out.println("Resource file path: " + resourceFile.getAbsolutePath());
+                return resourceFile.getAbsolutePath();
+            }
+            catch (URISyntaxException e)
+            {
+                System.err.println("Error converting resource URL to file: " + e.getMessage());
+            }
+        }
+
+        file = new File(xmlFilename);
+        if (file.exists())
+        {
+            System.out.println("Found XML file in current directory: " + file.getAbsolutePath());
+            return file.getAbsolutePath();
+        }
+
+        System.err.println("Failed to find XML file: " + xmlFilename);
+        return null;
+    }
+}
\ No newline at end of file
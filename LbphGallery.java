@@ -0,0 +1,468 @@
+package io.itpl.facerecognition;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Binary, memory-mapped store of LBPH training histograms.
+//
+// Layout (little endian):
+//   header     64 bytes: magic, version, radius, neighbors, gridX, gridY, sampleCount,
+//              histogramLength, labelsOffset, labelMapOffset
+//   histograms sampleCount * histogramLength floats, starting at HEADER_SIZE
+//   labels     sampleCount ints
+//   label map  entry count, then (label, utf-8 length, utf-8 bytes) per entry
+//
+// Histograms are mapped read-only in chunks of whole rows, so opening a gallery costs
+// a few syscalls regardless of its size. close() unmaps them at once rather than when the
+// buffers are collected, so the file can be deleted right after, Windows included.
+//
+// A gallery can span several files: a base file followed by delta files holding the rows added
+// by later registrations. Rows are numbered consecutively across the files, and the label map of
+// the last file wins.
+public class LbphGallery implements Closeable
+{
+    public static final int MAGIC = 0x4750424C; // "LBPG"
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final MethodHandle INVOKE_CLEANER = findInvokeCleaner();
+
+    private final FileChannel[] channels;
+    private final int radius;
+    private final int neighbors;
+    private final int gridX;
+    private final int gridY;
+    private final int sampleCount;
+    private final int baseSize;
+    private final int histogramLength;
+    private final ByteBuffer[] histogramChunks;
+    private final int[] chunkFirstRows;
+    private final int[] labels;
+    private final Map<Integer, String> labelMap;
+    private final int[] rowsByLabel;
+    private final Map<Integer, int[]> labelRowRanges;
+
+    private LbphGallery(FileChannel[] channels) throws IOException
+    {
+        this.channels = channels;
+        int[] parameters = null;
+        int length = 0;
+        List<ByteBuffer> chunks = new ArrayList<>();
+        List<Integer> chunkRows = new ArrayList<>();
+        int[] allLabels = new int[0];
+        int rowCount = 0;
+        int firstFileRows = 0;
+        Map<Integer, String> map = new HashMap<>();
+        for (FileChannel channel : channels)
+        {
+            ByteBuffer headerBuffer = read(channel, 0, HEADER_SIZE);
+            if (headerBuffer.getInt() != MAGIC)
+            {
+                throw new IOException("Not an LBPH gallery file");
+            }
+            int version = headerBuffer.getInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported LBPH gallery version: " + version);
+            }
+            // radius, neighbors, gridX, gridY
+            int[] fileParameters = {headerBuffer.getInt(), headerBuffer.getInt(), headerBuffer.getInt(), headerBuffer.getInt()};
+            int fileRows = headerBuffer.getInt();
+            int fileLength = headerBuffer.getInt();
+            long labelsOffset = headerBuffer.getLong();
+            long labelMapOffset = headerBuffer.getLong();
+            if (parameters == null)
+            {
+                parameters = fileParameters;
+                length = fileLength;
+                firstFileRows = fileRows;
+            }
+            else if (!Arrays.equals(parameters, fileParameters) || length != fileLength)
+            {
+                throw new IOException("LBPH gallery delta does not match the base parameters");
+            }
+
+            long rowBytes = (long) fileLength * Float.BYTES;
+            int rowsPerChunk = (int) Math.max(1, Math.min(fileRows, Integer.MAX_VALUE / Math.max(rowBytes, 1)));
+            for (int first = 0; first < fileRows; first += rowsPerChunk)
+            {
+                int rows = Math.min(rowsPerChunk, fileRows - first);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + first * rowBytes, rows * rowBytes);
+                chunks.add(mapped.order(ByteOrder.LITTLE_ENDIAN));
+                chunkRows.add(rowCount + first);
+            }
+
+            allLabels = Arrays.copyOf(allLabels, rowCount + fileRows);
+            read(channel, labelsOffset, (long) fileRows * Integer.BYTES).asIntBuffer().get(allLabels, rowCount, fileRows);
+            rowCount += fileRows;
+
+            ByteBuffer labelMapBuffer = read(channel, labelMapOffset, channel.size() - labelMapOffset);
+            int entries = labelMapBuffer.getInt();
+            for (int i = 0; i < entries; i++)
+            {
+                int label = labelMapBuffer.getInt();
+                byte[] name = new byte[labelMapBuffer.getInt()];
+                labelMapBuffer.get(name);
+                map.put(label, new String(name, StandardCharsets.UTF_8));
+            }
+        }
+        radius = parameters[0];
+        neighbors = parameters[1];
+        gridX = parameters[2];
+        gridY = parameters[3];
+        histogramLength = length;
+        sampleCount = rowCount;
+        baseSize = firstFileRows;
+        histogramChunks = chunks.toArray(new ByteBuffer[0]);
+        chunkFirstRows = chunkRows.stream().mapToInt(Integer::intValue).toArray();
+        labels = allLabels;
+        labelMap = Collections.unmodifiableMap(map);
+
+        // Row numbers grouped by label, so a subset of students can be scanned without copying.
+        Integer[] order = new Integer[sampleCount];
+        for (int i = 0; i < sampleCount; i++)
+        {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(labels[a], labels[b]));
+        rowsByLabel = new int[sampleCount];
+        labelRowRanges = new HashMap<>();
+        int rangeStart = 0;
+        for (int i = 0; i < sampleCount; i++)
+        {
+            rowsByLabel[i] = order[i];
+            if (i + 1 == sampleCount || labels[order[i + 1]] != labels[order[i]])
+            {
+                labelRowRanges.put(labels[order[i]], new int[]{rangeStart, i + 1});
+                rangeStart = i + 1;
+            }
+        }
+    }
+
+    public static LbphGallery open(Path path) throws IOException
+    {
+        return open(List.of(path));
+    }
+
+    // Opens a base file and the delta files written after it, in order.
+    public static LbphGallery open(List<Path> files) throws IOException
+    {
+        FileChannel[] channels = new FileChannel[files.size()];
+        try
+        {
+            for (int i = 0; i < channels.length; i++)
+            {
+                channels[i] = FileChannel.open(files.get(i), StandardOpenOption.READ);
+            }
+            return new LbphGallery(channels);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            for (FileChannel channel : channels)
+            {
+                if (channel != null)
+                {
+                    channel.close();
+                }
+            }
+            throw e;
+        }
+    }
+
+    public int getRadius()
+    {
+        return radius;
+    }
+
+    public int getNeighbors()
+    {
+        return neighbors;
+    }
+
+    public int getGridX()
+    {
+        return gridX;
+    }
+
+    public int getGridY()
+    {
+        return gridY;
+    }
+
+    public int size()
+    {
+        return sampleCount;
+    }
+
+    // Rows in the base file; the rows after it come from delta files.
+    public int getBaseSize()
+    {
+        return baseSize;
+    }
+
+    public int getHistogramLength()
+    {
+        return histogramLength;
+    }
+
+    public int getLabel(int row)
+    {
+        return labels[row];
+    }
+
+    public Map<Integer, String> getLabelMap()
+    {
+        return labelMap;
+    }
+
+    // Rows belonging to any of the given labels, in ascending row order so scans stay sequential.
+    public int[] rowsForLabels(Set<Integer> selectedLabels)
+    {
+        int count = 0;
+        for (Integer label : selectedLabels)
+        {
+            int[] range = labelRowRanges.get(label);
+            if (range != null)
+            {
+                count += range[1] - range[0];
+            }
+        }
+        int[] rows = new int[count];
+        int position = 0;
+        for (Integer label : selectedLabels)
+        {
+            int[] range = labelRowRanges.get(label);
+            if (range != null)
+            {
+                System.arraycopy(rowsByLabel, range[0], rows, position, range[1] - range[0]);
+                position += range[1] - range[0];
+            }
+        }
+        Arrays.sort(rows);
+        return rows;
+    }
+
+    public void copyHistogram(int row, float[] destination)
+    {
+        getHistogramBuffer(row).asFloatBuffer().get(getHistogramOffset(row) / Float.BYTES, destination, 0, histogramLength);
+    }
+
+    // The mapped, little-endian chunk holding the row; read it in place at getHistogramOffset(row).
+    public ByteBuffer getHistogramBuffer(int row)
+    {
+        return histogramChunks[chunkOf(row)];
+    }
+
+    // Byte offset of the row within getHistogramBuffer(row).
+    public int getHistogramOffset(int row)
+    {
+        return (row - chunkFirstRows[chunkOf(row)]) * histogramLength * Float.BYTES;
+    }
+
+    // A single file usually fits in one chunk; deltas add one small chunk each.
+    private int chunkOf(int row)
+    {
+        if (chunkFirstRows.length == 1)
+        {
+            return 0;
+        }
+        int chunk = Arrays.binarySearch(chunkFirstRows, row);
+        return chunk >= 0 ? chunk : -chunk - 2;
+    }
+
+    // The gallery must not be read after this; ModelGeneration only closes it once unreferenced.
+    @Override
+    public synchronized void close() throws IOException
+    {
+        for (int i = 0; i < histogramChunks.length; i++)
+        {
+            ByteBuffer chunk = histogramChunks[i];
+            histogramChunks[i] = null;
+            if (chunk != null && INVOKE_CLEANER != null)
+            {
+                try
+                {
+                    INVOKE_CLEANER.invokeExact(chunk);
+                }
+                catch (Throwable e)
+                {
+                    System.err.println("Could not unmap LBPH gallery: " + e);
+                }
+            }
+        }
+        for (FileChannel channel : channels)
+        {
+            channel.close();
+        }
+    }
+
+    // sun.misc.Unsafe.invokeCleaner, looked up reflectively; without it mappings go with the GC.
+    private static MethodHandle findInvokeCleaner()
+    {
+        try
+        {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(theUnsafe.get(null));
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            System.err.println("Gallery mappings will be released by the garbage collector: " + e);
+            return null;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, long length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("Unexpected end of LBPH gallery file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Streams histograms to a temporary file and moves it over the target on close,
+    // so readers never observe a half-written gallery.
+    public static class Writer implements Closeable
+    {
+        private final Path target;
+        private final Path tempFile;
+        private final FileChannel channel;
+        private final int radius;
+        private final int neighbors;
+        private final int gridX;
+        private final int gridY;
+        private final int histogramLength;
+        private final ByteBuffer rowBuffer;
+        private final Map<Integer, String> labelMap;
+        private int[] labels = new int[1024];
+        private int sampleCount;
+        private boolean committed;
+
+        public Writer(Path target, int radius, int neighbors, int gridX, int gridY, int histogramLength,
+                      Map<Integer, String> labelMap) throws IOException
+        {
+            this.target = target.toAbsolutePath();
+            this.radius = radius;
+            this.neighbors = neighbors;
+            this.gridX = gridX;
+            this.gridY = gridY;
+            this.histogramLength = histogramLength;
+            this.labelMap = new HashMap<>(labelMap);
+            this.rowBuffer = ByteBuffer.allocateDirect(histogramLength * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            this.tempFile = Files.createTempFile(this.target.getParent(), this.target.getFileName().toString(), ".tmp");
+            this.channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.channel.position(HEADER_SIZE);
+        }
+
+        public void add(int label, FloatBuffer histogram) throws IOException
+        {
+            if (histogram.remaining() != histogramLength)
+            {
+                throw new IllegalArgumentException("Expected histogram of length " + histogramLength
+                        + " but got " + histogram.remaining());
+            }
+            rowBuffer.clear();
+            rowBuffer.asFloatBuffer().put(histogram);
+            writeFully(rowBuffer);
+            if (sampleCount == labels.length)
+            {
+                labels = Arrays.copyOf(labels, labels.length * 2);
+            }
+            labels[sampleCount++] = label;
+        }
+
+        public void add(int label, float[] histogram) throws IOException
+        {
+            add(label, FloatBuffer.wrap(histogram));
+        }
+
+        public void putLabel(int label, String enrollmentNumber)
+        {
+            labelMap.put(label, enrollmentNumber);
+        }
+
+        public void commit() throws IOException
+        {
+            long labelsOffset = channel.position();
+            ByteBuffer labelBuffer = ByteBuffer.allocate(sampleCount * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            labelBuffer.asIntBuffer().put(labels, 0, sampleCount);
+            writeFully(labelBuffer);
+
+            long labelMapOffset = channel.position();
+            int mapBytes = Integer.BYTES;
+            for (String name : labelMap.values())
+            {
+                mapBytes += 2 * Integer.BYTES + name.getBytes(StandardCharsets.UTF_8).length;
+            }
+            ByteBuffer mapBuffer = ByteBuffer.allocate(mapBytes).order(ByteOrder.LITTLE_ENDIAN);
+            mapBuffer.putInt(labelMap.size());
+            for (Map.Entry<Integer, String> entry : labelMap.entrySet())
+            {
+                byte[] name = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                mapBuffer.putInt(entry.getKey()).putInt(name.length).put(name);
+            }
+            mapBuffer.flip();
+            writeFully(mapBuffer);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION)
+                    .putInt(radius).putInt(neighbors).putInt(gridX).putInt(gridY)
+                    .putInt(sampleCount).putInt(histogramLength)
+                    .putLong(labelsOffset).putLong(labelMapOffset);
+            header.rewind();
+            channel.position(0);
+            writeFully(header);
+
+            channel.force(true);
+            channel.close();
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (!committed)
+            {
+                channel.close();
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException
+        {
+            buffer.rewind();
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,401 @@
+package io.itpl.facerecognition;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.bytedeco.opencv.opencv_core.Mat;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Java implementation of OpenCV's LBPH prediction over an LbphGallery.
+// Histogram extraction follows facerec.cpp (elbp + spatial_histogram) and the distance is
+// compareHist(HISTCMP_CHISQR_ALT), so labels agree with LBPHFaceRecognizer.predict.
+// The distance kernel uses the Vector API; lanes accumulate in float and are folded into a
+// double every BLOCK elements, which is also where a row is abandoned once it cannot make the top-k.
+// Gallery rows are read straight from the mapped file, so an abandoned row costs only the blocks
+// that were actually compared.
+public class LbphMatcher
+{
+    private static final float FLOAT_EPSILON = Math.ulp(1.0f);
+    private static final double DOUBLE_EPSILON = Math.ulp(1.0);
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int BLOCK = 256;
+
+    private final LbphGallery gallery;
+    private final int radius;
+    private final int neighbors;
+    private final int gridX;
+    private final int gridY;
+    private final int numPatterns;
+    private final int[] offsetX1;
+    private final int[] offsetY1;
+    private final int[] offsetX2;
+    private final int[] offsetY2;
+    private final float[][] weights;
+
+    public LbphMatcher(LbphGallery gallery)
+    {
+        this.gallery = gallery;
+        this.radius = gallery.getRadius();
+        this.neighbors = gallery.getNeighbors();
+        this.gridX = gallery.getGridX();
+        this.gridY = gallery.getGridY();
+        this.numPatterns = 1 << neighbors;
+
+        offsetX1 = new int[neighbors];
+        offsetY1 = new int[neighbors];
+        offsetX2 = new int[neighbors];
+        offsetY2 = new int[neighbors];
+        weights = new float[neighbors][4];
+        for (int n = 0; n < neighbors; n++)
+        {
+            float x = (float) (radius * Math.cos(2.0 * Math.PI * n / (float) neighbors));
+            float y = (float) (-radius * Math.sin(2.0 * Math.PI * n / (float) neighbors));
+            offsetX1[n] = (int) Math.floor(x);
+            offsetY1[n] = (int) Math.floor(y);
+            offsetX2[n] = (int) Math.ceil(x);
+            offsetY2[n] = (int) Math.ceil(y);
+            float ty = y - offsetY1[n];
+            float tx = x - offsetX1[n];
+            weights[n][0] = (1 - tx) * (1 - ty);
+            weights[n][1] = tx * (1 - ty);
+            weights[n][2] = (1 - tx) * ty;
+            weights[n][3] = tx * ty;
+        }
+    }
+
+    public LbphGallery getGallery()
+    {
+        return gallery;
+    }
+
+    public int getHistogramLength()
+    {
+        return gridX * gridY * numPatterns;
+    }
+
+    public int getCodeCount(int rows, int cols)
+    {
+        return (rows - 2 * radius) * (cols - 2 * radius);
+    }
+
+    // face must be a continuous single channel 8-bit image, as produced by resize().
+    public void computeHistogram(Mat face, float[] histogram)
+    {
+        int rows = face.rows();
+        int cols = face.cols();
+        computeHistogram(face, new byte[rows * cols], new int[getCodeCount(rows, cols)], histogram);
+    }
+
+    // Allocation-free variant; pixels and codes are caller-owned scratch buffers.
+    public void computeHistogram(Mat face, byte[] pixels, int[] codes, float[] histogram)
+    {
+        int rows = face.rows();
+        int cols = face.cols();
+        face.data().get(pixels, 0, rows * cols);
+        computeHistogram(pixels, rows, cols, codes, histogram);
+    }
+
+    void computeHistogram(byte[] pixels, int rows, int cols, int[] codes, float[] histogram)
+    {
+        int codeCols = cols - 2 * radius;
+        int codeRows = rows - 2 * radius;
+        Arrays.fill(codes, 0, codeRows * codeCols, 0);
+        for (int n = 0; n < neighbors; n++)
+        {
+            int fx = offsetX1[n], fy = offsetY1[n], cx = offsetX2[n], cy = offsetY2[n];
+            float w1 = weights[n][0], w2 = weights[n][1], w3 = weights[n][2], w4 = weights[n][3];
+            for (int i = radius; i < rows - radius; i++)
+            {
+                for (int j = radius; j < cols - radius; j++)
+                {
+                    float t = w1 * (pixels[(i + fy) * cols + j + fx] & 0xFF)
+                            + w2 * (pixels[(i + fy) * cols + j + cx] & 0xFF)
+                            + w3 * (pixels[(i + cy) * cols + j + fx] & 0xFF)
+                            + w4 * (pixels[(i + cy) * cols + j + cx] & 0xFF);
+                    int center = pixels[i * cols + j] & 0xFF;
+                    if (t > center || Math.abs(t - center) < FLOAT_EPSILON)
+                    {
+                        codes[(i - radius) * codeCols + (j - radius)] += 1 << n;
+                    }
+                }
+            }
+        }
+
+        Arrays.fill(histogram, 0, getHistogramLength(), 0f);
+        int cellWidth = codeCols / gridX;
+        int cellHeight = codeRows / gridY;
+        float cellWeight = 1.0f / (cellWidth * cellHeight);
+        for (int gy = 0; gy < gridY; gy++)
+        {
+            for (int gx = 0; gx < gridX; gx++)
+            {
+                int base = (gy * gridX + gx) * numPatterns;
+                for (int i = gy * cellHeight; i < (gy + 1) * cellHeight; i++)
+                {
+                    for (int j = gx * cellWidth; j < (gx + 1) * cellWidth; j++)
+                    {
+                        histogram[base + codes[i * codeCols + j]] += 1;
+                    }
+                }
+                for (int k = base; k < base + numPatterns; k++)
+                {
+                    histogram[k] *= cellWeight;
+                }
+            }
+        }
+    }
+
+    // Returns the gallery row closest to the query; row and label are -1 for an empty gallery.
+    public Match predict(float[] query)
+    {
+        Match[] matches = predict(query, 1);
+        return matches.length > 0 ? matches[0] : new Match(-1, -1, Double.MAX_VALUE);
+    }
+
+    // Returns up to k matches with distinct labels, nearest first. Each label is represented by
+    // its closest gallery row, so the second entry is the best competing student.
+    public Match[] predict(float[] query, int k)
+    {
+        TopK top = new TopK(k);
+        predict(query, top);
+        return top.toArray();
+    }
+
+    // Allocation-free variant: fills the caller's TopK.
+    public void predict(float[] query, TopK top)
+    {
+        top.reset();
+        for (int r = 0; r < gallery.size(); r++)
+        {
+            double distance = distance(r, query, top.bound());
+            if (distance < top.bound())
+            {
+                top.offer(r, gallery.getLabel(r), distance);
+            }
+        }
+    }
+
+    // HISTCMP_CHISQR_ALT; returns Double.MAX_VALUE as soon as the partial sum reaches the bound.
+    static double chiSquare(float[] a, float[] b, double bound)
+    {
+        double halfBound = bound / 2;
+        double sum = 0;
+        int length = Math.min(a.length, b.length);
+        int vectorLength = SPECIES.loopBound(length);
+        int i = 0;
+        while (i < vectorLength)
+        {
+            int blockEnd = Math.min(i + BLOCK, vectorLength);
+            FloatVector accumulator = FloatVector.zero(SPECIES);
+            for (; i < blockEnd; i += SPECIES.length())
+            {
+                FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+                FloatVector vb = FloatVector.fromArray(SPECIES, b, i);
+                FloatVector s = va.add(vb);
+                FloatVector d = va.sub(vb);
+                VectorMask<Float> nonZero = s.compare(VectorOperators.GT, FLOAT_EPSILON);
+                accumulator = accumulator.add(d.mul(d).div(s), nonZero);
+            }
+            sum += accumulator.reduceLanes(VectorOperators.ADD);
+            if (sum >= halfBound)
+            {
+                return Double.MAX_VALUE;
+            }
+        }
+        for (; i < length; i++)
+        {
+            double s = a[i] + b[i];
+            if (Math.abs(s) > DOUBLE_EPSILON)
+            {
+                double d = a[i] - b[i];
+                sum += d * d / s;
+            }
+        }
+        return 2 * sum;
+    }
+
+    // chiSquare(a, b, bound) with a read from a little-endian buffer of floats starting at offset (in bytes).
+    static double chiSquare(ByteBuffer a, int offset, float[] b, double bound)
+    {
+        double halfBound = bound / 2;
+        double sum = 0;
+        int length = b.length;
+        int vectorLength = SPECIES.loopBound(length);
+        int i = 0;
+        while (i < vectorLength)
+        {
+            int blockEnd = Math.min(i + BLOCK, vectorLength);
+            FloatVector accumulator = FloatVector.zero(SPECIES);
+            for (; i < blockEnd; i += SPECIES.length())
+            {
+                FloatVector va = FloatVector.fromByteBuffer(SPECIES, a, offset + i * Float.BYTES, ByteOrder.LITTLE_ENDIAN);
+                FloatVector vb = FloatVector.fromArray(SPECIES, b, i);
+                FloatVector s = va.add(vb);
+                FloatVector d = va.sub(vb);
+                VectorMask<Float> nonZero = s.compare(VectorOperators.GT, FLOAT_EPSILON);
+                accumulator = accumulator.add(d.mul(d).div(s), nonZero);
+            }
+            sum += accumulator.reduceLanes(VectorOperators.ADD);
+            if (sum >= halfBound)
+            {
+                return Double.MAX_VALUE;
+            }
+        }
+        for (; i < length; i++)
+        {
+            float ai = a.getFloat(offset + i * Float.BYTES);
+            double s = ai + b[i];
+            if (Math.abs(s) > DOUBLE_EPSILON)
+            {
+                double d = ai - b[i];
+                sum += d * d / s;
+            }
+        }
+        return 2 * sum;
+    }
+
+    // Scalar reference kernel, kept for benchmarking the vectorised one.
+    static double chiSquareScalar(float[] a, float[] b)
+    {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++)
+        {
+            double s = a[i] + b[i];
+            if (Math.abs(s) > DOUBLE_EPSILON)
+            {
+                double d = a[i] - b[i];
+                sum += d * d / s;
+            }
+        }
+        return 2 * sum;
+    }
+
+    // Same as predict(query, k) but only considers the given gallery rows.
+    public Match[] predict(float[] query, int k, int[] rows)
+    {
+        TopK top = new TopK(k);
+        predict(query, top, rows);
+        return top.toArray();
+    }
+
+    public void predict(float[] query, TopK top, int[] rows)
+    {
+        top.reset();
+        for (int r : rows)
+        {
+            double distance = distance(r, query, top.bound());
+            if (distance < top.bound())
+            {
+                top.offer(r, gallery.getLabel(r), distance);
+            }
+        }
+    }
+
+    double distance(int row, float[] query, double bound)
+    {
+        return chiSquare(gallery.getHistogramBuffer(row), gallery.getHistogramOffset(row), query, bound);
+    }
+
+    // Sorted list of the k best distinct labels seen so far; reusable across queries.
+    public static class TopK
+    {
+        private final int[] rows;
+        private final int[] labels;
+        private final double[] distances;
+        private int count;
+
+        public TopK(int k)
+        {
+            rows = new int[k];
+            labels = new int[k];
+            distances = new double[k];
+        }
+
+        public void reset()
+        {
+            count = 0;
+        }
+
+        public int size()
+        {
+            return count;
+        }
+
+        public int getLabel(int i)
+        {
+            return labels[i];
+        }
+
+        public double getDistance(int i)
+        {
+            return distances[i];
+        }
+
+        double bound()
+        {
+            return count < distances.length ? Double.MAX_VALUE : distances[count - 1];
+        }
+
+        void offer(int row, int label, double distance)
+        {
+            int position = count;
+            for (int i = 0; i < count; i++)
+            {
+                if (labels[i] == label)
+                {
+                    if (distance >= distances[i])
+                    {
+                        return;
+                    }
+                    position = i;
+                    break;
+                }
+            }
+            if (position == count)
+            {
+                if (count < distances.length)
+                {
+                    count++;
+                }
+                position = count - 1;
+            }
+            while (position > 0 && distances[position - 1] > distance)
+            {
+                rows[position] = rows[position - 1];
+                labels[position] = labels[position - 1];
+                distances[position] = distances[position - 1];
+                position--;
+            }
+            rows[position] = row;
+            labels[position] = label;
+            distances[position] = distance;
+        }
+
+        Match[] toArray()
+        {
+            Match[] matches = new Match[count];
+            for (int i = 0; i < count; i++)
+            {
+                matches[i] = new Match(rows[i], labels[i], distances[i]);
+            }
+            return matches;
+        }
+    }
+
+    public static class Match
+    {
+        public final int row;
+        public final int label;
+        public final double distance;
+
+        public Match(int row, int label, double distance)
+        {
+            this.row = row;
+            this.label = label;
+            this.distance = distance;
+        }
+    }
+}
\ No newline at end of file
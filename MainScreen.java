@@ -1,7 +1,10 @@
 package io.itpl.ui;
 
+import io.itpl.database.DatabaseConnection;
+import io.itpl.database.SchemaMigrations;
 import io.itpl.facerecognition.FaceRecognitionTrainer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -12,12 +15,27 @@ import javafx.scene.layout.VBox;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class MainScreen extends Application {
     private Label statusLabel;
     private Stage primaryStage;
     private Scene mainScene;
     private boolean wasMaximized;
+    private static final AtomicBoolean trainingInProgress = new AtomicBoolean(false);
+
+    // Runs once on the launcher thread, before the first screen is shown.
+    @Override
+    public void init() {
+        try {
+            SchemaMigrations.migrate();
+        } catch (SQLException e) {
+            System.err.println("Schema migrations failed; restart once the database is reachable. "
+                    + "Marks are kept in the local journal until then: " + e.getMessage());
+        }
+    }
 
     @Override
     public void start(Stage primaryStage) {
@@ -49,6 +67,13 @@ public class MainScreen extends Application {
         });
     }
 
+    @Override
+    public void stop() {
+        CameraService.shutdownAll();
+        System.out.println("Database pool: " + DatabaseConnection.getPoolStats());
+        DatabaseConnection.shutdown();
+    }
+
     private VBox createCenterBox() {
         VBox centerBox = new VBox(30);
         centerBox.setAlignment(Pos.CENTER);
@@ -96,16 +121,37 @@ public class MainScreen extends Application {
     }
 
     private void trainModel() {
-        FaceRecognitionTrainer trainer = new FaceRecognitionTrainer();
-        trainer.loadModel();
-        trainer.trainModel();
-        updateStatus("Model Trained Successfully");
+        runTraining("Model Trained Successfully", trainer -> {
+            trainer.migrateModel();
+            trainer.loadModel();
+            trainer.trainModel();
+        });
     }
 
     private void retrainModel() {
-        FaceRecognitionTrainer trainer = new FaceRecognitionTrainer();
-        trainer.trainModel();
-        updateStatus("Model Re-Trained Successfully");
+        runTraining("Model Re-Trained Successfully", FaceRecognitionTrainer::trainModel);
+    }
+
+    // Training runs off the FX thread; running kiosks pick up the new model through their watcher.
+    private void runTraining(String doneMessage, Consumer<FaceRecognitionTrainer> training) {
+        if (!trainingInProgress.compareAndSet(false, true)) {
+            updateStatus("Training already in progress...");
+            return;
+        }
+        updateStatus("Training in background...");
+        Thread trainingThread = new Thread(() -> {
+            try {
+                training.accept(new FaceRecognitionTrainer());
+                Platform.runLater(() -> updateStatus(doneMessage));
+            } catch (Exception e) {
+                e.printStackTrace();
+                Platform.runLater(() -> updateStatus("Training failed: " + e.getMessage()));
+            } finally {
+                trainingInProgress.set(false);
+            }
+        }, "model-training");
+        trainingThread.setDaemon(true);
+        trainingThread.start();
     }
 
     private void updateStatus(String message) {
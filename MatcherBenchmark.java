@@ -0,0 +1,158 @@
+package io.itpl.facerecognition;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_face.LBPHFaceRecognizer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.bytedeco.opencv.global.opencv_core.flip;
+
+// Compares LbphMatcher against LBPHFaceRecognizer.predict on the images under captured_images.
+// Probes are the mirrored training crops, so neither path gets an exact match for free.
+//
+// Usage: MatcherBenchmark [rounds]
+public class MatcherBenchmark
+{
+    public static void main(String[] args) throws IOException
+    {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+
+        FaceRecognitionTrainer trainer = new FaceRecognitionTrainer();
+        FaceRecognitionTrainer.TrainingSet trainingSet = trainer.loadTrainingSet(true);
+        int sampleCount = (int) trainingSet.images.size();
+        if (sampleCount == 0)
+        {
+            System.err.println("No training faces found under captured_images.");
+            return;
+        }
+
+        LBPHFaceRecognizer nativeRecognizer = LBPHFaceRecognizer.create();
+        nativeRecognizer.train(trainingSet.images, trainingSet.labels);
+
+        Path galleryFile = Files.createTempFile("benchmark", ".lbph");
+        Map<Integer, String> labelMap = new HashMap<>();
+        FaceRecognitionTrainer.writeGallery(galleryFile, nativeRecognizer, null, labelMap);
+
+        Mat[] probes = new Mat[sampleCount];
+        for (int i = 0; i < sampleCount; i++)
+        {
+            probes[i] = new Mat();
+            flip(trainingSet.images.get(i), probes[i], 1);
+        }
+
+        try (LbphGallery gallery = LbphGallery.open(galleryFile))
+        {
+            LbphMatcher matcher = new LbphMatcher(gallery);
+            float[] histogram = new float[matcher.getHistogramLength()];
+            IntPointer label = new IntPointer(1);
+            DoublePointer confidence = new DoublePointer(1);
+
+            System.out.printf("Gallery: %d samples x %d bins, %d probes, %d rounds%n",
+                    gallery.size(), gallery.getHistogramLength(), sampleCount, rounds);
+
+            for (int round = 0; round < rounds; round++)
+            {
+                int agreements = 0;
+                long nativeNanos = 0;
+                long javaNanos = 0;
+                for (Mat probe : probes)
+                {
+                    long start = System.nanoTime();
+                    nativeRecognizer.predict(probe, label, confidence);
+                    nativeNanos += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    matcher.computeHistogram(probe, histogram);
+                    LbphMatcher.Match[] matches = matcher.predict(histogram, 5);
+                    javaNanos += System.nanoTime() - start;
+
+                    if (matches.length > 0 && matches[0].label == label.get())
+                    {
+                        agreements++;
+                    }
+                }
+                System.out.printf("Round %d: native %.3f ms/probe, java top-5 %.3f ms/probe, agreement %d/%d%n",
+                        round + 1, nativeNanos / 1e6 / sampleCount, javaNanos / 1e6 / sampleCount,
+                        agreements, sampleCount);
+            }
+
+            float[][] probeHistograms = new float[sampleCount][];
+            for (int i = 0; i < sampleCount; i++)
+            {
+                probeHistograms[i] = new float[matcher.getHistogramLength()];
+                matcher.computeHistogram(probes[i], probeHistograms[i]);
+            }
+            VpTreeIndex index = VpTreeIndex.build(matcher);
+            for (double epsilon : new double[]{0.0, 0.1, 0.25, 0.5, 1.0})
+            {
+                index.resetStatistics();
+                long start = System.nanoTime();
+                double recall = index.measureRecall(matcher, probeHistograms, epsilon);
+                long nanos = System.nanoTime() - start;
+                System.out.printf("VP-tree epsilon %.2f: recall@1 %.3f, %.0f of %d distances per query, %.3f ms/probe (incl. exact scan)%n",
+                        epsilon, recall, index.getAverageDistanceComputations(), gallery.size(), nanos / 1e6 / sampleCount);
+            }
+
+            float[] row = new float[gallery.getHistogramLength()];
+            gallery.copyHistogram(0, row);
+            ByteBuffer mappedRow = gallery.getHistogramBuffer(0);
+            int mappedOffset = gallery.getHistogramOffset(0);
+            matcher.computeHistogram(probes[0], histogram);
+            int iterations = 20000;
+            double scalarSum = 0;
+            double vectorSum = 0;
+            double mappedSum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+            {
+                scalarSum += LbphMatcher.chiSquareScalar(row, histogram);
+            }
+            long scalarNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+            {
+                vectorSum += LbphMatcher.chiSquare(row, histogram, Double.MAX_VALUE);
+            }
+            long vectorNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+            {
+                mappedSum += LbphMatcher.chiSquare(mappedRow, mappedOffset, histogram, Double.MAX_VALUE);
+            }
+            long mappedNanos = System.nanoTime() - start;
+            System.out.printf("Chi-square kernel: scalar %.2f us, vector %.2f us, vector from mapped row %.2f us (residual %.3g)%n",
+                    scalarNanos / 1e3 / iterations, vectorNanos / 1e3 / iterations, mappedNanos / 1e3 / iterations,
+                    Math.max(Math.abs(scalarSum - vectorSum), Math.abs(scalarSum - mappedSum)));
+        }
+        finally
+        {
+            Files.deleteIfExists(galleryFile);
+        }
+
+        trainer.migrateModel();
+        trainer.loadModel();
+        if (trainer.isModelLoaded())
+        {
+            List<Mat> batch = Arrays.asList(probes);
+            long start = System.nanoTime();
+            for (Mat probe : probes)
+            {
+                trainer.recognizeFace(probe);
+            }
+            double sequentialSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            trainer.recognizeFaces(batch);
+            double batchSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("recognizeFace: %.1f faces/sec, recognizeFaces (%d cores): %.1f faces/sec%n",
+                    sampleCount / sequentialSeconds, Runtime.getRuntime().availableProcessors(),
+                    sampleCount / batchSeconds);
+        }
+    }
+}
\ No newline at end of file
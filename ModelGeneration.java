@@ -0,0 +1,121 @@
+package io.itpl.facerecognition;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One published version of the recognition model.
+// Frames acquire the current generation before predicting and release it afterwards. The
+// publisher holds one reference of its own, which it drops when a newer generation replaces
+// this one; the gallery is unmapped when the last reference is released, and its files are
+// deleted unless the pointer file has come back to them.
+public class ModelGeneration
+{
+    private final long number;
+    private final LbphGallery gallery;
+    private final LbphMatcher matcher;
+    private final VpTreeIndex index;
+    private final String fileGeneration;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile int[] rosterRows;
+
+    ModelGeneration(long number, LbphGallery gallery, VpTreeIndex index, String fileGeneration)
+    {
+        this.number = number;
+        this.gallery = gallery;
+        this.matcher = new LbphMatcher(gallery);
+        this.index = index;
+        this.fileGeneration = fileGeneration;
+    }
+
+    boolean acquire()
+    {
+        while (true)
+        {
+            int count = references.get();
+            if (count == 0)
+            {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    void release()
+    {
+        if (references.decrementAndGet() == 0)
+        {
+            try
+            {
+                gallery.close();
+                System.out.println("Released model generation " + number);
+                FaceRecognitionTrainer.deleteIfRetired(fileGeneration);
+            }
+            catch (IOException e)
+            {
+                System.err.println("Error releasing model generation " + number + ": " + e.getMessage());
+            }
+        }
+    }
+
+    void resolveRoster(Set<String> enrollmentNumbers)
+    {
+        if (enrollmentNumbers == null)
+        {
+            rosterRows = null;
+            return;
+        }
+        Set<Integer> labels = new HashSet<>();
+        for (Map.Entry<Integer, String> entry : gallery.getLabelMap().entrySet())
+        {
+            if (enrollmentNumbers.contains(entry.getValue()))
+            {
+                labels.add(entry.getKey());
+            }
+        }
+        int[] rows = gallery.rowsForLabels(labels);
+        System.out.println("Roster: " + labels.size() + " of " + enrollmentNumbers.size()
+                + " students enrolled in the model, " + rows.length + " samples to search.");
+        rosterRows = rows;
+    }
+
+    public long getNumber()
+    {
+        return number;
+    }
+
+    LbphGallery getGallery()
+    {
+        return gallery;
+    }
+
+    LbphMatcher getMatcher()
+    {
+        return matcher;
+    }
+
+    VpTreeIndex getIndex()
+    {
+        return index;
+    }
+
+    int[] getRosterRows()
+    {
+        return rosterRows;
+    }
+
+    Map<Integer, String> getLabelMap()
+    {
+        return gallery.getLabelMap();
+    }
+
+    String getFileGeneration()
+    {
+        return fileGeneration;
+    }
+}
\ No newline at end of file
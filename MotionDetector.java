@@ -0,0 +1,56 @@
+package io.itpl.ui;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+
+import static org.bytedeco.opencv.global.opencv_core.absdiff;
+import static org.bytedeco.opencv.global.opencv_core.countNonZero;
+import static org.bytedeco.opencv.global.opencv_imgproc.*;
+
+// Frame-difference motion check on a thumbnail of the camera image.
+// Each call shrinks the frame to WIDTH x HEIGHT grayscale and compares it with the previous
+// thumbnail; motion is reported when more than minChangedFraction of the pixels changed by more
+// than PIXEL_THRESHOLD grey levels. Not thread-safe.
+public class MotionDetector {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final int PIXEL_THRESHOLD = 25;
+
+    private final double minChangedFraction;
+    private final Size size = new Size(WIDTH, HEIGHT);
+    private final Mat small = new Mat();
+    private Mat current = new Mat();
+    private Mat previous = new Mat();
+    private final Mat difference = new Mat();
+
+    public MotionDetector(double minChangedFraction) {
+        this.minChangedFraction = minChangedFraction;
+    }
+
+    public boolean hasMotion(Mat frame) {
+        resize(frame, small, size, 0, 0, INTER_AREA);
+        if (small.channels() > 1) {
+            cvtColor(small, current, COLOR_BGR2GRAY);
+        } else {
+            small.copyTo(current);
+        }
+
+        boolean motion;
+        if (previous.empty()) {
+            motion = false;
+        } else {
+            absdiff(current, previous, difference);
+            threshold(difference, difference, PIXEL_THRESHOLD, 255, THRESH_BINARY);
+            motion = countNonZero(difference) > minChangedFraction * WIDTH * HEIGHT;
+        }
+
+        Mat swap = previous;
+        previous = current;
+        current = swap;
+        return motion;
+    }
+
+    public void reset() {
+        previous.release();
+    }
+}
\ No newline at end of file
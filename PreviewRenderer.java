@@ -0,0 +1,94 @@
+package io.itpl.ui;
+
+import javafx.application.Platform;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.util.Callback;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC4;
+import static org.bytedeco.opencv.global.opencv_imgproc.*;
+
+// Shows camera frames in an ImageView without per-frame image objects or encoding.
+// The worker thread converts each frame to BGRA in a staging Mat; the FX thread copies it into a
+// PixelBuffer that wraps a direct ByteBuffer, which the WritableImage displays in place. While one
+// update is still waiting for the FX thread, newer frames are skipped rather than queued.
+public class PreviewRenderer {
+    private final ImageView view;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final FrameStats frameStats = new FrameStats("preview");
+    private final Mat staging = new Mat();
+    private final Runnable flush = this::flush;
+    private final Callback<PixelBuffer<ByteBuffer>, Rectangle2D> copyStaging = buffer -> {
+        staging.copyTo(this.display);
+        return null;
+    };
+
+    // FX thread only.
+    private PixelBuffer<ByteBuffer> pixelBuffer;
+    private Mat display;
+
+    public PreviewRenderer(ImageView view) {
+        this.view = view;
+    }
+
+    // Worker thread; frame may be BGR, BGRA or grayscale 8-bit.
+    public void render(Mat frame) {
+        if (frame == null || frame.empty()) {
+            return;
+        }
+        if (!pending.compareAndSet(false, true)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        frameStats.frameStarted();
+        switch (frame.channels()) {
+            case 1:
+                cvtColor(frame, staging, COLOR_GRAY2BGRA);
+                break;
+            case 3:
+                cvtColor(frame, staging, COLOR_BGR2BGRA);
+                break;
+            default:
+                frame.copyTo(staging);
+                break;
+        }
+        frameStats.frameFinished();
+        Platform.runLater(flush);
+    }
+
+    private void flush() {
+        int width = staging.cols();
+        int height = staging.rows();
+        if (pixelBuffer == null || pixelBuffer.getWidth() != width || pixelBuffer.getHeight() != height) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * 4);
+            if (display != null) {
+                display.close();
+            }
+            display = new Mat(height, width, CV_8UC4, new BytePointer(buffer));
+            pixelBuffer = new PixelBuffer<>(width, height, buffer, PixelFormat.getByteBgraPreInstance());
+            view.setImage(new WritableImage(pixelBuffer));
+        }
+        pixelBuffer.updateBuffer(copyStaging);
+        rendered.incrementAndGet();
+        pending.set(false);
+    }
+
+    public long getRendered() {
+        return rendered.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+}
\ No newline at end of file
@@ -7,22 +7,18 @@ import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.GridPane;
 import javafx.stage.Stage;
-import org.opencv.core.Core;
-import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.videoio.VideoCapture;
-import java.io.ByteArrayInputStream;
+import org.bytedeco.javacv.FrameGrabber;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imwrite;
 
 public class RegisterUserScreen
 {
@@ -32,8 +28,10 @@ public class RegisterUserScreen
     private Button registerButton;
     private Label statusLabel;
     private ImageView cameraView;
+    private PreviewRenderer previewRenderer;
     private List<String> capturedImagePaths;
-    private VideoCapture capture;
+    private CameraService.Subscription cameraSubscription;
+    private final AtomicReference<CameraFrame> latestFrame = new AtomicReference<>();
     private boolean isCapturing = false;
     private GridPane grid;
     private Stage primaryStage;
@@ -45,7 +43,6 @@ public class RegisterUserScreen
     {
         this.primaryStage = primaryStage;
         capturedImagePaths = new ArrayList<>();
-        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
         this.grid = new GridPane();
     }
     public void show()
@@ -70,6 +67,7 @@ public class RegisterUserScreen
         cameraView = new ImageView();
         cameraView.setFitWidth(640);
         cameraView.setFitHeight(480);
+        previewRenderer = new PreviewRenderer(cameraView);
 
         grid.add(new Label("Enrollment Number:"), 0, 0);
         grid.add(enrollmentField, 1, 0);
@@ -94,31 +92,40 @@ public class RegisterUserScreen
 
     private void startCamera()
     {
-        capture = new VideoCapture(0);
-        Thread cameraThread = new Thread(this::updateCameraView);
-        cameraThread.setDaemon(true);
-        cameraThread.start();
+        try
+        {
+            cameraSubscription = CameraService.getDefault().subscribe(this::onFrame);
+        }
+        catch (FrameGrabber.Exception e)
+        {
+            e.printStackTrace();
+            statusLabel.setText("Error starting camera: " + e.getMessage());
+        }
     }
 
-    private void updateCameraView()
+    // Camera thread: shows the frame and keeps it as the one the capture button will save.
+    private void onFrame(CameraFrame frame)
     {
-        Mat frame = new Mat();
-        while (capture.isOpened())
+        previewRenderer.render(frame.getImage());
+        frame.retain();
+        CameraFrame previous = latestFrame.getAndSet(frame);
+        if (previous != null)
         {
-            capture.read(frame);
-            if (!frame.empty())
-            {
-                Image image = mat2Image(frame);
-                Platform.runLater(() -> cameraView.setImage(image));
-            }
-            try
-            {
-                Thread.sleep(33);
-            }
-            catch (InterruptedException e)
-            {
-                e.printStackTrace();
-            }
+            previous.release();
+        }
+    }
+
+    private void stopCamera()
+    {
+        if (cameraSubscription != null)
+        {
+            cameraSubscription.close();
+            cameraSubscription = null;
+        }
+        CameraFrame frame = latestFrame.getAndSet(null);
+        if (frame != null)
+        {
+            frame.release();
         }
     }
 
@@ -137,8 +144,13 @@ public class RegisterUserScreen
             return;
         }
 
-        Mat frame = new Mat();
-        if (capture.read(frame))
+        CameraFrame frame = latestFrame.getAndSet(null);
+        if (frame == null)
+        {
+            statusLabel.setText("Camera is not ready yet. Please try again.");
+            return;
+        }
+        try
         {
             String dirPath = BASE_IMAGE_PATH + File.separator + enrollmentNumber;
             File dir = new File(dirPath);
@@ -147,7 +159,7 @@ public class RegisterUserScreen
                 dir.mkdirs();
             }
             String filename = dirPath + File.separator + "image_" + (capturedImagePaths.size() + 1) + ".png";
-            Imgcodecs.imwrite(filename, frame);
+            imwrite(filename, frame.getImage());
             capturedImagePaths.add(filename);
 
             int remaining = REQUIRED_IMAGES - capturedImagePaths.size();
@@ -159,13 +171,10 @@ public class RegisterUserScreen
                 captureButton.setDisable(true);
             }
         }
-    }
-
-    private Image mat2Image(Mat frame)
-    {
-        MatOfByte buffer = new MatOfByte();
-        Imgcodecs.imencode(".png", frame, buffer);
-        return new Image(new ByteArrayInputStream(buffer.toArray()));
+        finally
+        {
+            frame.release();
+        }
     }
 
     private void registerUser()
@@ -179,41 +188,53 @@ public class RegisterUserScreen
             return;
         }
 
-        try (Connection conn = DatabaseConnection.getConnection())
-        {
-            String sql = "INSERT INTO users (enrollmentNumber, name) VALUES (?, ?)";
-            try (PreparedStatement pstmt = conn.prepareStatement(sql))
+        // The insert and the model update run off the FX thread so the preview keeps rendering.
+        registerButton.setDisable(true);
+        statusLabel.setText("Registering user...");
+        Thread registrationThread = new Thread(() -> {
+            try (Connection conn = DatabaseConnection.getConnection())
             {
-                pstmt.setString(1, enrollmentNumber);
-                pstmt.setString(2, name);
-
-                int affectedRows = pstmt.executeUpdate();
-                if (affectedRows > 0)
-                {
-                    statusLabel.setText("User registered successfully.");
-                    FaceRecognitionTrainer trainer = new FaceRecognitionTrainer();
-                    trainer.loadModel();
-                    trainer.updateModel(enrollmentNumber);
-                }
-                else
+                String sql = "INSERT INTO users (enrollmentNumber, name) VALUES (?, ?)";
+                try (PreparedStatement pstmt = conn.prepareStatement(sql))
                 {
-                    statusLabel.setText("Failed to register user.");
+                    pstmt.setString(1, enrollmentNumber);
+                    pstmt.setString(2, name);
+
+                    int affectedRows = pstmt.executeUpdate();
+                    if (affectedRows > 0)
+                    {
+                        Platform.runLater(() -> statusLabel.setText("User registered. Updating model..."));
+                        FaceRecognitionTrainer trainer = new FaceRecognitionTrainer();
+                        trainer.migrateModel();
+                        trainer.loadModel();
+                        trainer.updateModel(enrollmentNumber);
+                        Platform.runLater(() -> statusLabel.setText("User registered successfully."));
+                    }
+                    else
+                    {
+                        Platform.runLater(() -> {
+                            statusLabel.setText("Failed to register user.");
+                            registerButton.setDisable(false);
+                        });
+                    }
                 }
             }
-        }
-        catch (SQLException e)
-        {
-            e.printStackTrace();
-            statusLabel.setText("Error: " + e.getMessage());
-        }
+            catch (SQLException e)
+            {
+                e.printStackTrace();
+                Platform.runLater(() -> {
+                    statusLabel.setText("Error: " + e.getMessage());
+                    registerButton.setDisable(false);
+                });
+            }
+        }, "user-registration");
+        registrationThread.setDaemon(true);
+        registrationThread.start();
     }
 
     private void returnToMainScreen()
     {
-        if (capture != null)
-        {
-            capture.release();
-        }
+        stopCamera();
         MainScreen mainScreen = new MainScreen();
         mainScreen.start(primaryStage);
         if (primaryStage.isMaximized()) {
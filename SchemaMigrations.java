@@ -0,0 +1,225 @@
+package io.itpl.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Versioned schema for the attendance database.
+// Every migration has a version; schema_version records the ones already applied and migrate()
+// runs the rest in order. It runs at application startup only (MainScreen.init and the command
+// line tools), never on a write path. MySQL commits DDL implicitly, so a migration cannot be rolled
+// back; it is recorded right after its last step succeeds, and every step is written so that
+// re-running it after a crash part way through is harmless: tables and triggers are created with
+// IF NOT EXISTS / DROP IF EXISTS, and indexes only when information_schema does not list them yet.
+// Kiosks starting together serialise on a named lock.
+public class SchemaMigrations
+{
+    private static final String LOCK_NAME = "sgp_schema_migrations";
+    private static final int LOCK_TIMEOUT_SECONDS = 30;
+    private static final List<Migration> MIGRATIONS = new ArrayList<>();
+    private static volatile boolean migrated;
+
+    static
+    {
+        add(1, "Create users, attendance and subject_roster", statements(
+                "CREATE TABLE IF NOT EXISTS users ("
+                        + "id INT AUTO_INCREMENT PRIMARY KEY, "
+                        + "enrollmentNumber VARCHAR(50) NOT NULL, "
+                        + "name VARCHAR(100) NOT NULL)",
+                "CREATE TABLE IF NOT EXISTS attendance ("
+                        + "id INT AUTO_INCREMENT PRIMARY KEY, "
+                        + "enrollmentNumber VARCHAR(50) NOT NULL, "
+                        + "date DATE NOT NULL, "
+                        + "time TIME NOT NULL, "
+                        + "subject VARCHAR(100) NOT NULL, "
+                        + "status VARCHAR(20) NOT NULL)",
+                "CREATE TABLE IF NOT EXISTS subject_roster ("
+                        + "subject VARCHAR(100) NOT NULL, "
+                        + "enrollmentNumber VARCHAR(50) NOT NULL, "
+                        + "PRIMARY KEY (subject, enrollmentNumber))"));
+        // Older databases may already hold duplicate marks from the check-then-insert race;
+        // the earliest row of each is kept.
+        add(2, "One attendance row per student, date and subject",
+                statement("DELETE later FROM attendance later JOIN attendance earlier "
+                        + "ON later.enrollmentNumber = earlier.enrollmentNumber AND later.date = earlier.date "
+                        + "AND later.subject = earlier.subject AND later.id > earlier.id"),
+                addIndex("attendance", "uq_attendance_mark",
+                        "ALTER TABLE attendance ADD UNIQUE KEY uq_attendance_mark (enrollmentNumber, date, subject)"));
+        add(3, "Indexes for per-subject reads and user lookups",
+                addIndex("attendance", "idx_attendance_date_subject",
+                        "ALTER TABLE attendance ADD INDEX idx_attendance_date_subject (date, subject, id)"),
+                addIndex("users", "idx_users_enrollment",
+                        "ALTER TABLE users ADD INDEX idx_users_enrollment (enrollmentNumber)"));
+        add(4, "Monthly attendance aggregates", concat(statements(AttendanceAggregates.CREATE_STATEMENTS),
+                statements(AttendanceAggregates.REBUILD_STATEMENTS)));
+    }
+
+    // One idempotent unit of a migration.
+    private interface Step
+    {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private static void add(int version, String description, Step... steps)
+    {
+        MIGRATIONS.add(new Migration(version, description, steps));
+    }
+
+    private static Step[] statements(String... sql)
+    {
+        Step[] steps = new Step[sql.length];
+        for (int i = 0; i < sql.length; i++)
+        {
+            steps[i] = statement(sql[i]);
+        }
+        return steps;
+    }
+
+    private static Step statement(String sql)
+    {
+        return conn -> {
+            try (Statement stmt = conn.createStatement())
+            {
+                stmt.execute(sql);
+            }
+        };
+    }
+
+    // ALTER TABLE ... ADD INDEX has no IF NOT EXISTS in MySQL, so the index is looked up first.
+    private static Step addIndex(String table, String index, String sql)
+    {
+        return conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT 1 FROM information_schema.STATISTICS "
+                    + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ? LIMIT 1"))
+            {
+                pstmt.setString(1, table);
+                pstmt.setString(2, index);
+                try (ResultSet rs = pstmt.executeQuery())
+                {
+                    if (rs.next())
+                    {
+                        return;
+                    }
+                }
+            }
+            statement(sql).apply(conn);
+        };
+    }
+
+    private static Step[] concat(Step[] first, Step[] second)
+    {
+        Step[] steps = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, steps, first.length, second.length);
+        return steps;
+    }
+
+    // Applies pending migrations once per process; later calls return immediately. Call it at
+    // startup: a failure here is reported to the user instead of stalling a writer.
+    public static void migrate() throws SQLException
+    {
+        if (migrated)
+        {
+            return;
+        }
+        synchronized (SchemaMigrations.class)
+        {
+            if (migrated)
+            {
+                return;
+            }
+            try (Connection conn = DatabaseConnection.getConnection())
+            {
+                acquireLock(conn);
+                try
+                {
+                    applyPending(conn);
+                }
+                finally
+                {
+                    try (Statement stmt = conn.createStatement())
+                    {
+                        stmt.execute("DO RELEASE_LOCK('" + LOCK_NAME + "')");
+                    }
+                }
+            }
+            migrated = true;
+        }
+    }
+
+    public static int getLatestVersion()
+    {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    private static void applyPending(Connection conn) throws SQLException
+    {
+        try (Statement stmt = conn.createStatement())
+        {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+                    + "version INT PRIMARY KEY, "
+                    + "description VARCHAR(200) NOT NULL, "
+                    + "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+        }
+
+        int current = 0;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version"))
+        {
+            if (rs.next())
+            {
+                current = rs.getInt(1);
+            }
+        }
+
+        for (Migration migration : MIGRATIONS)
+        {
+            if (migration.version <= current)
+            {
+                continue;
+            }
+            System.out.println("Applying schema migration " + migration.version + ": " + migration.description);
+            for (Step step : migration.steps)
+            {
+                step.apply(conn);
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO schema_version (version, description) VALUES (?, ?)"))
+            {
+                pstmt.setInt(1, migration.version);
+                pstmt.setString(2, migration.description);
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    private static void acquireLock(Connection conn) throws SQLException
+    {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT GET_LOCK('" + LOCK_NAME + "', " + LOCK_TIMEOUT_SECONDS + ")"))
+        {
+            if (!rs.next() || rs.getInt(1) != 1)
+            {
+                throw new SQLException("Timed out waiting for another kiosk to finish schema migrations");
+            }
+        }
+    }
+
+    private static class Migration
+    {
+        final int version;
+        final String description;
+        final Step[] steps;
+
+        Migration(int version, String description, Step[] steps)
+        {
+            this.version = version;
+            this.description = description;
+            this.steps = steps;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,124 @@
+package io.itpl.database;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Which students take which subject, kept in subject_roster. The attendance screen searches only a
+// subject's roster, and AttendanceAggregates reports roster students without marks as 0%.
+//
+// The roster is maintained by the administrator from a CSV of subject,enrollmentNumber lines.
+// Every subject named in the file gets exactly the file's students; other subjects are left alone.
+// BulkEnrollmentImporter takes the same file as an optional third argument.
+//
+// Usage: SubjectRoster import <roster.csv> | show <subject>
+public class SubjectRoster
+{
+    private static final int INSERT_BATCH = 500;
+
+    // Replaces the roster of every subject in the file, in one transaction; returns the rows written.
+    public static int importCsv(Path csv) throws IOException, SQLException
+    {
+        Map<String, Set<String>> rosters = readCsv(csv);
+        try (Connection conn = DatabaseConnection.getConnection())
+        {
+            conn.setAutoCommit(false);
+            int rows = 0;
+            try (PreparedStatement delete = conn.prepareStatement("DELETE FROM subject_roster WHERE subject = ?");
+                 PreparedStatement insert = conn.prepareStatement(
+                         "INSERT INTO subject_roster (subject, enrollmentNumber) VALUES (?, ?)"))
+            {
+                for (Map.Entry<String, Set<String>> roster : rosters.entrySet())
+                {
+                    delete.setString(1, roster.getKey());
+                    delete.executeUpdate();
+                    for (String enrollmentNumber : roster.getValue())
+                    {
+                        insert.setString(1, roster.getKey());
+                        insert.setString(2, enrollmentNumber);
+                        insert.addBatch();
+                        if (++rows % INSERT_BATCH == 0)
+                        {
+                            insert.executeBatch();
+                        }
+                    }
+                }
+                insert.executeBatch();
+                conn.commit();
+            }
+            catch (SQLException e)
+            {
+                conn.rollback();
+                throw e;
+            }
+            System.out.println("Subject roster: " + rows + " students across " + rosters.size() + " subjects");
+            return rows;
+        }
+    }
+
+    private static Map<String, Set<String>> readCsv(Path csv) throws IOException
+    {
+        Map<String, Set<String>> rosters = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(csv))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                int comma = line.indexOf(',');
+                if (comma <= 0)
+                {
+                    continue;
+                }
+                String subject = line.substring(0, comma).trim();
+                String enrollmentNumber = line.substring(comma + 1).trim();
+                if (subject.equalsIgnoreCase("subject") || enrollmentNumber.isEmpty())
+                {
+                    continue;
+                }
+                rosters.computeIfAbsent(subject, key -> new LinkedHashSet<>()).add(enrollmentNumber);
+            }
+        }
+        return rosters;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        SchemaMigrations.migrate();
+        if (args.length > 1 && args[0].equals("import"))
+        {
+            importCsv(Paths.get(args[1]));
+        }
+        else if (args.length > 1 && args[0].equals("show"))
+        {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement pstmt = conn.prepareStatement(
+                         "SELECT enrollmentNumber FROM subject_roster WHERE subject = ? ORDER BY enrollmentNumber"))
+            {
+                pstmt.setString(1, args[1]);
+                try (ResultSet rs = pstmt.executeQuery())
+                {
+                    while (rs.next())
+                    {
+                        System.out.println(rs.getString(1));
+                    }
+                }
+            }
+        }
+        else
+        {
+            System.err.println("Usage: SubjectRoster import <roster.csv> | show <subject>");
+            System.exit(1);
+        }
+        DatabaseConnection.shutdown();
+    }
+}
\ No newline at end of file
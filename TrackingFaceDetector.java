@@ -0,0 +1,209 @@
+package io.itpl.facerecognition;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Point;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.RectVector;
+import org.bytedeco.opencv.opencv_core.Size;
+import java.util.ArrayList;
+import java.util.List;
+import static org.bytedeco.opencv.global.opencv_core.minMaxLoc;
+import static org.bytedeco.opencv.global.opencv_imgproc.*;
+
+// Wraps a FaceDetector for video: a full detection runs every detectionInterval frames, or as
+// soon as a face is lost, and in between each face is followed by normalized template matching
+// inside a window around its last box.
+//
+// Templates and search windows are scaled down so the template is at most TEMPLATE_SIZE pixels
+// wide, which keeps a tracking step at a few thousand positions regardless of how close the
+// student stands. Full detections run on a copy of the frame no wider than maxDetectionWidth
+// and the boxes are scaled back up.
+public class TrackingFaceDetector implements FaceDetector
+{
+    private static final int TEMPLATE_SIZE = 40;
+    private static final double SEARCH_MARGIN = 0.5;
+    private static final double MIN_TEMPLATE_SCORE = 0.6;
+
+    private final FaceDetector detector;
+    private final int detectionInterval;
+    private final int maxDetectionWidth;
+    private final List<Track> tracks = new ArrayList<>();
+    private final Mat scaledFrame = new Mat();
+    private final RectVector scaledFaces = new RectVector();
+    private final Mat searchWindow = new Mat();
+    private final Mat matchResult = new Mat();
+    private final DoublePointer minScore = new DoublePointer(1);
+    private final DoublePointer maxScore = new DoublePointer(1);
+    private final Point minLocation = new Point();
+    private final Point maxLocation = new Point();
+    private int framesSinceDetection;
+    private long fullDetections;
+    private long trackedFrames;
+
+    public TrackingFaceDetector(FaceDetector detector, int detectionInterval, int maxDetectionWidth)
+    {
+        this.detector = detector;
+        this.detectionInterval = Math.max(1, detectionInterval);
+        this.maxDetectionWidth = maxDetectionWidth;
+    }
+
+    // Configured with face.tracking.interval (frames between detections, default 10) and
+    // face.detection.maxWidth (pixels, default 640).
+    public static TrackingFaceDetector create()
+    {
+        return new TrackingFaceDetector(FaceDetector.create(),
+                Integer.getInteger("face.tracking.interval", 10),
+                Integer.getInteger("face.detection.maxWidth", 640));
+    }
+
+    @Override
+    public void detect(Mat image, RectVector faces)
+    {
+        if (tracks.isEmpty() || framesSinceDetection >= detectionInterval || !trackAll(image))
+        {
+            detectAll(image);
+            framesSinceDetection = 0;
+            fullDetections++;
+        }
+        else
+        {
+            framesSinceDetection++;
+            trackedFrames++;
+        }
+
+        faces.clear();
+        for (Track track : tracks)
+        {
+            faces.push_back(track.box);
+        }
+    }
+
+    private void detectAll(Mat image)
+    {
+        clearTracks();
+        double scale = Math.min(1.0, maxDetectionWidth / (double) image.cols());
+        if (scale < 1.0)
+        {
+            resize(image, scaledFrame, new Size((int) Math.round(image.cols() * scale),
+                    (int) Math.round(image.rows() * scale)), 0, 0, INTER_AREA);
+            detector.detect(scaledFrame, scaledFaces);
+        }
+        else
+        {
+            detector.detect(image, scaledFaces);
+        }
+
+        for (long i = 0; i < scaledFaces.size(); i++)
+        {
+            Rect face = scaledFaces.get(i);
+            int x = (int) Math.round(face.x() / scale);
+            int y = (int) Math.round(face.y() / scale);
+            int width = Math.min((int) Math.round(face.width() / scale), image.cols() - x);
+            int height = Math.min((int) Math.round(face.height() / scale), image.rows() - y);
+            if (width > 0 && height > 0)
+            {
+                tracks.add(new Track(image, new Rect(x, y, width, height)));
+            }
+        }
+    }
+
+    // Moves every track to its best template match; false as soon as one of them is lost.
+    private boolean trackAll(Mat image)
+    {
+        for (Track track : tracks)
+        {
+            Rect box = track.box;
+            int marginX = (int) (box.width() * SEARCH_MARGIN);
+            int marginY = (int) (box.height() * SEARCH_MARGIN);
+            int left = Math.max(0, box.x() - marginX);
+            int top = Math.max(0, box.y() - marginY);
+            int right = Math.min(image.cols(), box.x() + box.width() + marginX);
+            int bottom = Math.min(image.rows(), box.y() + box.height() + marginY);
+
+            int windowWidth = (int) Math.round((right - left) * track.scale);
+            int windowHeight = (int) Math.round((bottom - top) * track.scale);
+            if (windowWidth < track.template.cols() || windowHeight < track.template.rows())
+            {
+                return false;
+            }
+            try (Rect searchRect = new Rect(left, top, right - left, bottom - top);
+                 Mat region = new Mat(image, searchRect);
+                 Size windowSize = new Size(windowWidth, windowHeight))
+            {
+                resize(region, searchWindow, windowSize, 0, 0, INTER_AREA);
+            }
+            matchTemplate(searchWindow, track.template, matchResult, TM_CCOEFF_NORMED);
+            minMaxLoc(matchResult, minScore, maxScore, minLocation, maxLocation, null);
+            if (maxScore.get() < MIN_TEMPLATE_SCORE)
+            {
+                return false;
+            }
+
+            int x = left + (int) Math.round(maxLocation.x() / track.scale);
+            int y = top + (int) Math.round(maxLocation.y() / track.scale);
+            track.box = new Rect(x, y, Math.min(box.width(), image.cols() - x), Math.min(box.height(), image.rows() - y));
+        }
+        return true;
+    }
+
+    private void clearTracks()
+    {
+        for (Track track : tracks)
+        {
+            track.template.close();
+        }
+        tracks.clear();
+    }
+
+    // Drops all tracks so the next frame gets a full detection.
+    public void reset()
+    {
+        clearTracks();
+    }
+
+    public long getFullDetections()
+    {
+        return fullDetections;
+    }
+
+    public long getTrackedFrames()
+    {
+        return trackedFrames;
+    }
+
+    @Override
+    public String getCacheKey()
+    {
+        return detector.getCacheKey();
+    }
+
+    @Override
+    public void close()
+    {
+        clearTracks();
+        detector.close();
+        scaledFrame.close();
+        searchWindow.close();
+        matchResult.close();
+    }
+
+    private static class Track
+    {
+        Rect box;
+        final double scale;
+        final Mat template = new Mat();
+
+        Track(Mat image, Rect box)
+        {
+            this.box = box;
+            this.scale = Math.min(1.0, TEMPLATE_SIZE / (double) box.width());
+            try (Mat face = new Mat(image, box);
+                 Size templateSize = new Size(Math.max(1, (int) Math.round(box.width() * scale)),
+                         Math.max(1, (int) Math.round(box.height() * scale))))
+            {
+                resize(face, template, templateSize, 0, 0, INTER_AREA);
+            }
+        }
+    }
+}
\ No newline at end of file
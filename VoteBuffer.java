@@ -0,0 +1,218 @@
+package io.itpl.facerecognition;
+
+// Sliding window of per-frame recognition votes with an early, sequential decision.
+//
+// Votes live in a fixed-size ring of label ids; per-label counts and confidence sums are updated
+// as votes enter and leave, so deciding never rescans the window or allocates.
+//
+// decide() runs Wald's sequential probability ratio test on the leading label: every vote for it
+// adds log(P1/P0), every other vote adds log((1-P1)/(1-P0)), where P1 is the vote share of a
+// correctly recognised student and P0 the share that must not be enough to mark anyone. The
+// leader is accepted once the sum reaches log((1-BETA)/ALPHA). Only the accept stops early: an
+// early reject on the lower bound turned away more than twice as many enrolled students in
+// VoteReplay, so a face is rejected only when the window fills up under the original rule,
+// which needs REQUIRED_SHARE of the window for the leader.
+public class VoteBuffer
+{
+    public static final int DEFAULT_WINDOW = 50;
+    public static final double DEFAULT_CONFIDENCE_THRESHOLD = 200.0;
+    public static final String UNKNOWN = "Unknown";
+    private static final double REQUIRED_SHARE = 0.6;
+    private static final int MIN_VOTES = 10;
+    private static final double P1 = 0.8;
+    private static final double P0 = 0.4;
+    private static final double ALPHA = 0.01;
+    private static final double BETA = 0.05;
+    private static final double VOTE_FOR = Math.log(P1 / P0);
+    private static final double VOTE_AGAINST = Math.log((1 - P1) / (1 - P0));
+    private static final double ACCEPT_BOUND = Math.log((1 - BETA) / ALPHA);
+
+    public enum Decision
+    {
+        PENDING,
+        ACCEPT,
+        UNKNOWN,
+        LOW_CONFIDENCE,
+        INCONSISTENT
+    }
+
+    private final int capacity;
+    private final double confidenceThreshold;
+    private final int[] ring;
+    private final double[] ringConfidence;
+    private final String[] labels;
+    private final int[] counts;
+    private final double[] confidenceSums;
+    private int head;
+    private int size;
+    private double confidenceSum;
+    private int unboundedVotes;
+    private int leader = -1;
+
+    public VoteBuffer()
+    {
+        this(DEFAULT_WINDOW, DEFAULT_CONFIDENCE_THRESHOLD);
+    }
+
+    public VoteBuffer(int capacity, double confidenceThreshold)
+    {
+        this.capacity = capacity;
+        this.confidenceThreshold = confidenceThreshold;
+        this.ring = new int[capacity];
+        this.ringConfidence = new double[capacity];
+        this.labels = new String[capacity];
+        this.counts = new int[capacity];
+        this.confidenceSums = new double[capacity];
+    }
+
+    public void add(String label, double confidence)
+    {
+        if (size == capacity)
+        {
+            remove(ring[head], ringConfidence[head]);
+            head = (head + 1) % capacity;
+            size--;
+        }
+        int id = labelId(label);
+        int slot = (head + size) % capacity;
+        ring[slot] = id;
+        ringConfidence[slot] = confidence;
+        size++;
+        counts[id]++;
+        if (confidence == Double.MAX_VALUE)
+        {
+            unboundedVotes++;
+        }
+        else
+        {
+            confidenceSums[id] += confidence;
+            confidenceSum += confidence;
+        }
+        if (leader < 0 || counts[id] > counts[leader])
+        {
+            leader = id;
+        }
+    }
+
+    public Decision decide()
+    {
+        if (size < MIN_VOTES)
+        {
+            return Decision.PENDING;
+        }
+        int leaderCount = counts[leader];
+        double evidence = leaderCount * VOTE_FOR + (size - leaderCount) * VOTE_AGAINST;
+        boolean full = size == capacity;
+        if (evidence >= ACCEPT_BOUND || (full && leaderCount >= capacity * REQUIRED_SHARE))
+        {
+            if (getAverageConfidence() < confidenceThreshold)
+            {
+                return isUnknown(labels[leader]) ? Decision.UNKNOWN : Decision.ACCEPT;
+            }
+            return full ? Decision.LOW_CONFIDENCE : Decision.PENDING;
+        }
+        return full ? Decision.INCONSISTENT : Decision.PENDING;
+    }
+
+    public String getLeader()
+    {
+        return leader < 0 ? null : labels[leader];
+    }
+
+    public int getLeaderCount()
+    {
+        return leader < 0 ? 0 : counts[leader];
+    }
+
+    // Mean distance of the leader's own votes.
+    public double getLeaderConfidence()
+    {
+        return leader < 0 || counts[leader] == 0 ? Double.MAX_VALUE : confidenceSums[leader] / counts[leader];
+    }
+
+    // Mean distance over the whole window; unbounded if any frame had no match at all.
+    public double getAverageConfidence()
+    {
+        return size == 0 || unboundedVotes > 0 ? Double.MAX_VALUE : confidenceSum / size;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < capacity; i++)
+        {
+            labels[i] = null;
+            counts[i] = 0;
+            confidenceSums[i] = 0;
+        }
+        head = 0;
+        size = 0;
+        confidenceSum = 0;
+        unboundedVotes = 0;
+        leader = -1;
+    }
+
+    private void remove(int id, double confidence)
+    {
+        counts[id]--;
+        if (confidence == Double.MAX_VALUE)
+        {
+            unboundedVotes--;
+        }
+        else
+        {
+            confidenceSums[id] -= confidence;
+            confidenceSum -= confidence;
+        }
+        if (counts[id] == 0)
+        {
+            labels[id] = null;
+            confidenceSums[id] = 0;
+        }
+        if (id == leader)
+        {
+            for (int i = 0; i < capacity; i++)
+            {
+                if (counts[i] > counts[leader])
+                {
+                    leader = i;
+                }
+            }
+        }
+    }
+
+    private int labelId(String label)
+    {
+        int free = -1;
+        for (int i = 0; i < capacity; i++)
+        {
+            if (labels[i] == null)
+            {
+                if (free < 0)
+                {
+                    free = i;
+                }
+            }
+            else if (labels[i].equals(label))
+            {
+                return i;
+            }
+        }
+        labels[free] = label;
+        return free;
+    }
+
+    private static boolean isUnknown(String label)
+    {
+        return UNKNOWN.equals(label) || "0".equals(label);
+    }
+}
\ No newline at end of file
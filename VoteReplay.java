@@ -0,0 +1,174 @@
+package io.itpl.facerecognition;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Replays recorded per-frame predictions through the attendance screen's original full-window
+// vote, reproduced as it was before VoteBuffer, and through the sequential VoteBuffer rule. For each rule it reports, separately for accepts and rejects, the frames
+// taken to decide and how often the outcome was wrong: a false accept marks someone other than
+// the student in front of the camera, a false reject turns away an enrolled student.
+//
+// Input is CSV with one frame per line: session,truth,label,confidence
+// where truth is the enrollment number of the student in front of the camera (or Unknown).
+// Further columns are ignored.
+//
+// Usage: VoteReplay <predictions.csv>
+public class VoteReplay
+{
+    private static final int FULL_WINDOW = 50;
+    private static final double FULL_WINDOW_CONFIDENCE_THRESHOLD = 200.0;
+
+    public static void main(String[] args) throws IOException
+    {
+        Map<String, List<String[]>> sessions = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[0])))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                String[] fields = line.split(",");
+                if (fields.length < 4 || fields[0].equals("session"))
+                {
+                    continue;
+                }
+                sessions.computeIfAbsent(fields[0], key -> new ArrayList<>()).add(fields);
+            }
+        }
+
+        Result fullWindow = new Result("full window");
+        Result sequential = new Result("sequential");
+        VoteBuffer votes = new VoteBuffer();
+        for (List<String[]> frames : sessions.values())
+        {
+            String truth = frames.get(0)[1];
+
+            votes.clear();
+            boolean decided = false;
+            for (int i = 0; i < frames.size() && !decided; i++)
+            {
+                add(votes, frames.get(i));
+                VoteBuffer.Decision decision = votes.decide();
+                if (decision != VoteBuffer.Decision.PENDING)
+                {
+                    sequential.record(decision == VoteBuffer.Decision.ACCEPT, votes.getLeader(), truth, i + 1);
+                    decided = true;
+                }
+            }
+            if (!decided)
+            {
+                sequential.undecided++;
+            }
+
+            if (frames.size() < FULL_WINDOW)
+            {
+                fullWindow.undecided++;
+                continue;
+            }
+            replayFullWindow(frames.subList(0, FULL_WINDOW), truth, fullWindow);
+        }
+
+        System.out.println(sessions.size() + " sessions");
+        System.out.println(fullWindow);
+        System.out.println(sequential);
+    }
+
+    // The original processRecognitionResults, run once the buffer held FULL_WINDOW predictions:
+    // a HashMap count where the first label reaching the maximum wins, and an average over every
+    // confidence, Unknown frames included.
+    private static void replayFullWindow(List<String[]> frames, String truth, Result result)
+    {
+        Map<String, Integer> labelCounts = new HashMap<>();
+        double totalConfidence = 0;
+        for (String[] frame : frames)
+        {
+            labelCounts.put(frame[2], labelCounts.getOrDefault(frame[2], 0) + 1);
+            totalConfidence += Double.parseDouble(frame[3]);
+        }
+        double averageConfidence = totalConfidence / frames.size();
+
+        String mostFrequentLabel = null;
+        int maxCount = 0;
+        for (Map.Entry<String, Integer> entry : labelCounts.entrySet())
+        {
+            if (entry.getValue() > maxCount)
+            {
+                maxCount = entry.getValue();
+                mostFrequentLabel = entry.getKey();
+            }
+        }
+
+        boolean accepted = maxCount >= FULL_WINDOW * 0.6 && averageConfidence < FULL_WINDOW_CONFIDENCE_THRESHOLD
+                && !"Unknown".equals(mostFrequentLabel) && !"0".equals(mostFrequentLabel);
+        result.record(accepted, mostFrequentLabel, truth, FULL_WINDOW);
+    }
+
+    private static void add(VoteBuffer votes, String[] frame)
+    {
+        votes.add(frame[2], Double.parseDouble(frame[3]));
+    }
+
+    private static class Result
+    {
+        final String name;
+        int accepts;
+        int falseAccepts;
+        long acceptFrames;
+        int rejects;
+        int falseRejects;
+        long rejectFrames;
+        int undecided;
+
+        Result(String name)
+        {
+            this.name = name;
+        }
+
+        void record(boolean accepted, String label, String truth, int framesUsed)
+        {
+            if (accepted)
+            {
+                accepts++;
+                acceptFrames += framesUsed;
+                if (!label.equals(truth))
+                {
+                    falseAccepts++;
+                }
+            }
+            else
+            {
+                rejects++;
+                rejectFrames += framesUsed;
+                if (!VoteBuffer.UNKNOWN.equals(truth))
+                {
+                    falseRejects++;
+                }
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s: %d undecided; %d accepts in %.1f frames, %d false (%.2f%%); "
+                            + "%d rejects in %.1f frames, %d false (%.2f%%)",
+                    name, undecided, accepts, average(acceptFrames, accepts), falseAccepts, percent(falseAccepts, accepts),
+                    rejects, average(rejectFrames, rejects), falseRejects, percent(falseRejects, rejects));
+        }
+
+        private static double average(long total, int count)
+        {
+            return count == 0 ? 0 : total / (double) count;
+        }
+
+        private static double percent(int part, int count)
+        {
+            return count == 0 ? 0 : 100.0 * part / count;
+        }
+    }
+}
\ No newline at end of file
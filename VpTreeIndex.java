@@ -0,0 +1,365 @@
+package io.itpl.facerecognition;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Vantage-point tree over the rows of an LbphGallery.
+//
+// The tree uses sqrt(chi-square) as its metric; the square root of the symmetric chi-square
+// distance is a true metric, so the triangle inequality pruning is exact when epsilon is 0.
+// A positive epsilon shrinks the search radius to tau / (1 + epsilon), trading recall for
+// fewer distance computations. Distances reported to callers stay in chi-square units.
+//
+// The tree covers the first size() rows of the gallery. Rows appended by later registrations are
+// scanned exactly after the tree search until the next rebuild.
+public class VpTreeIndex
+{
+    private static final int MAGIC = 0x49545056; // "VPTI"
+    private static final int VERSION = 1;
+    private static final int LEAF_SIZE = 8;
+
+    private final int sampleCount;
+    private final int[] items;
+    private final int[] nodeStart;
+    private final int[] nodeEnd;
+    private final float[] nodeRadius;
+    private final int[] nodeInside;
+    private final int[] nodeOutside;
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong distanceComputations = new AtomicLong();
+
+    private VpTreeIndex(int sampleCount, int[] items, int[] nodeStart, int[] nodeEnd, float[] nodeRadius,
+                        int[] nodeInside, int[] nodeOutside)
+    {
+        this.sampleCount = sampleCount;
+        this.items = items;
+        this.nodeStart = nodeStart;
+        this.nodeEnd = nodeEnd;
+        this.nodeRadius = nodeRadius;
+        this.nodeInside = nodeInside;
+        this.nodeOutside = nodeOutside;
+    }
+
+    public static VpTreeIndex build(LbphMatcher matcher)
+    {
+        long startTime = System.nanoTime();
+        LbphGallery gallery = matcher.getGallery();
+        int n = gallery.size();
+        Builder builder = new Builder(matcher, n);
+        if (n > 0)
+        {
+            builder.build(0, n);
+        }
+        VpTreeIndex index = new VpTreeIndex(n, builder.items,
+                Arrays.copyOf(builder.start, builder.nodeCount),
+                Arrays.copyOf(builder.end, builder.nodeCount),
+                Arrays.copyOf(builder.radius, builder.nodeCount),
+                Arrays.copyOf(builder.inside, builder.nodeCount),
+                Arrays.copyOf(builder.outside, builder.nodeCount));
+        System.out.printf("VP-tree index built over %d samples (%d nodes) in %.1f s%n",
+                n, builder.nodeCount, (System.nanoTime() - startTime) / 1e9);
+        return index;
+    }
+
+    public int size()
+    {
+        return sampleCount;
+    }
+
+    public LbphMatcher.Match[] search(LbphMatcher matcher, float[] query, int k, double epsilon)
+    {
+        LbphMatcher.TopK top = new LbphMatcher.TopK(k);
+        search(matcher, query, top, epsilon);
+        return top.toArray();
+    }
+
+    // Allocation-free variant: fills the caller's TopK.
+    public void search(LbphMatcher matcher, float[] query, LbphMatcher.TopK top, double epsilon)
+    {
+        top.reset();
+        long computed = 0;
+        if (nodeStart.length > 0)
+        {
+            computed = search(0, matcher, query, top, 1.0 + epsilon);
+        }
+        int galleryRows = matcher.getGallery().size();
+        for (int row = sampleCount; row < galleryRows; row++)
+        {
+            offer(row, matcher, query, top, top.bound());
+            computed++;
+        }
+        queries.incrementAndGet();
+        distanceComputations.addAndGet(computed);
+    }
+
+    // Returns the number of distances computed below this node.
+    private long search(int node, LbphMatcher matcher, float[] query, LbphMatcher.TopK top, double slack)
+    {
+        int start = nodeStart[node];
+        int end = nodeEnd[node];
+        if (nodeInside[node] < 0)
+        {
+            for (int i = start; i < end; i++)
+            {
+                offer(items[i], matcher, query, top, top.bound());
+            }
+            return end - start;
+        }
+
+        int vantagePoint = items[start];
+        double d = Math.sqrt(offer(vantagePoint, matcher, query, top, Double.MAX_VALUE));
+        double mu = nodeRadius[node];
+        long computed = 1;
+        if (d < mu)
+        {
+            computed += search(nodeInside[node], matcher, query, top, slack);
+            if (d + tau(top, slack) >= mu)
+            {
+                computed += search(nodeOutside[node], matcher, query, top, slack);
+            }
+        }
+        else
+        {
+            computed += search(nodeOutside[node], matcher, query, top, slack);
+            if (d - tau(top, slack) <= mu)
+            {
+                computed += search(nodeInside[node], matcher, query, top, slack);
+            }
+        }
+        return computed;
+    }
+
+    private static double tau(LbphMatcher.TopK top, double slack)
+    {
+        double bound = top.bound();
+        return bound == Double.MAX_VALUE ? Double.MAX_VALUE : Math.sqrt(bound) / slack;
+    }
+
+    private static double offer(int row, LbphMatcher matcher, float[] query, LbphMatcher.TopK top, double bound)
+    {
+        double distance = matcher.distance(row, query, bound);
+        if (distance < top.bound())
+        {
+            top.offer(row, matcher.getGallery().getLabel(row), distance);
+        }
+        return distance;
+    }
+
+    // Fraction of probes whose top-1 label matches the exact scan.
+    public double measureRecall(LbphMatcher matcher, float[][] probes, double epsilon)
+    {
+        if (probes.length == 0)
+        {
+            return 1.0;
+        }
+        int agreements = 0;
+        for (float[] probe : probes)
+        {
+            LbphMatcher.Match exact = matcher.predict(probe);
+            LbphMatcher.Match[] approximate = search(matcher, probe, 1, epsilon);
+            if (approximate.length > 0 && approximate[0].label == exact.label)
+            {
+                agreements++;
+            }
+        }
+        return agreements / (double) probes.length;
+    }
+
+    public double getAverageDistanceComputations()
+    {
+        long count = queries.get();
+        return count == 0 ? 0 : distanceComputations.get() / (double) count;
+    }
+
+    public void resetStatistics()
+    {
+        queries.set(0);
+        distanceComputations.set(0);
+    }
+
+    public void save(Path target) throws IOException
+    {
+        Path tempFile = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sampleCount);
+            out.writeInt(nodeStart.length);
+            for (int item : items)
+            {
+                out.writeInt(item);
+            }
+            for (int i = 0; i < nodeStart.length; i++)
+            {
+                out.writeInt(nodeStart[i]);
+                out.writeInt(nodeEnd[i]);
+                out.writeFloat(nodeRadius[i]);
+                out.writeInt(nodeInside[i]);
+                out.writeInt(nodeOutside[i]);
+            }
+        }
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static VpTreeIndex load(Path source) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                throw new IOException("Unsupported VP-tree index file: " + source);
+            }
+            int sampleCount = in.readInt();
+            int nodeCount = in.readInt();
+            int[] items = new int[sampleCount];
+            for (int i = 0; i < sampleCount; i++)
+            {
+                items[i] = in.readInt();
+            }
+            int[] start = new int[nodeCount];
+            int[] end = new int[nodeCount];
+            float[] radius = new float[nodeCount];
+            int[] inside = new int[nodeCount];
+            int[] outside = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++)
+            {
+                start[i] = in.readInt();
+                end[i] = in.readInt();
+                radius[i] = in.readFloat();
+                inside[i] = in.readInt();
+                outside[i] = in.readInt();
+            }
+            return new VpTreeIndex(sampleCount, items, start, end, radius, inside, outside);
+        }
+    }
+
+    private static class Builder
+    {
+        private final LbphMatcher matcher;
+        private final float[] vantageHistogram;
+        private final Random random = new Random(42);
+        private final int[] items;
+        private final double[] distances;
+        private int[] start;
+        private int[] end;
+        private float[] radius;
+        private int[] inside;
+        private int[] outside;
+        private int nodeCount;
+
+        Builder(LbphMatcher matcher, int n)
+        {
+            this.matcher = matcher;
+            this.vantageHistogram = new float[matcher.getHistogramLength()];
+            this.items = new int[n];
+            this.distances = new double[n];
+            for (int i = 0; i < n; i++)
+            {
+                items[i] = i;
+            }
+            int capacity = Math.max(1, 2 * n / LEAF_SIZE + 1);
+            start = new int[capacity];
+            end = new int[capacity];
+            radius = new float[capacity];
+            inside = new int[capacity];
+            outside = new int[capacity];
+        }
+
+        int build(int from, int to)
+        {
+            int node = newNode(from, to);
+            if (to - from <= LEAF_SIZE)
+            {
+                return node;
+            }
+
+            swap(from, from + random.nextInt(to - from));
+            matcher.getGallery().copyHistogram(items[from], vantageHistogram);
+            for (int i = from + 1; i < to; i++)
+            {
+                distances[i] = Math.sqrt(matcher.distance(items[i], vantageHistogram, Double.MAX_VALUE));
+            }
+            int median = (from + 1 + to) / 2;
+            select(from + 1, to - 1, median);
+            radius[node] = (float) distances[median];
+
+            int insideNode = build(from + 1, median);
+            int outsideNode = build(median, to);
+            inside[node] = insideNode;
+            outside[node] = outsideNode;
+            return node;
+        }
+
+        private int newNode(int from, int to)
+        {
+            if (nodeCount == start.length)
+            {
+                int capacity = start.length * 2;
+                start = Arrays.copyOf(start, capacity);
+                end = Arrays.copyOf(end, capacity);
+                radius = Arrays.copyOf(radius, capacity);
+                inside = Arrays.copyOf(inside, capacity);
+                outside = Arrays.copyOf(outside, capacity);
+            }
+            start[nodeCount] = from;
+            end[nodeCount] = to;
+            inside[nodeCount] = -1;
+            outside[nodeCount] = -1;
+            return nodeCount++;
+        }
+
+        // Quickselect on distances[lo..hi] so that position k holds its sorted value.
+        private void select(int lo, int hi, int k)
+        {
+            while (lo < hi)
+            {
+                double pivot = distances[lo + random.nextInt(hi - lo + 1)];
+                int i = lo;
+                int j = hi;
+                while (i <= j)
+                {
+                    while (distances[i] < pivot)
+                    {
+                        i++;
+                    }
+                    while (distances[j] > pivot)
+                    {
+                        j--;
+                    }
+                    if (i <= j)
+                    {
+                        swap(i++, j--);
+                    }
+                }
+                if (k <= j)
+                {
+                    hi = j;
+                }
+                else if (k >= i)
+                {
+                    lo = i;
+                }
+                else
+                {
+                    return;
+                }
+            }
+        }
+
+        private void swap(int a, int b)
+        {
+            int item = items[a];
+            items[a] = items[b];
+            items[b] = item;
+            double distance = distances[a];
+            distances[a] = distances[b];
+            distances[b] = distance;
+        }
+    }
+}
\ No newline at end of file
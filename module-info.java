@@ -7,7 +7,9 @@ module io.itpl.ui {
     requires org.bytedeco.javacpp;
     requires org.bytedeco.openblas;
     requires org.bytedeco.javacv;
-    requires javafx.swing;
+    requires jdk.incubator.vector;
+    requires jdk.management;
+    requires jdk.unsupported;
 
     opens io.itpl.ui to javafx.fxml;
     exports io.itpl.ui;